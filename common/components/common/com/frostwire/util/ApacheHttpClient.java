@@ -0,0 +1,522 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.params.ConnManagerPNames;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP client backed by a single Apache HttpClient shared by all the instances.
+ * <p>
+ * Connections are kept alive and pooled per host, so the many requests of the
+ * search performers to the same engine reuse the same sockets instead of paying
+ * a TCP (and TLS) handshake each time. Responses are requested gzip/deflate
+ * compressed and decompressed on the fly.
+ * <p>
+ * An instance can be used by several threads at once, every request has its
+ * own cookies and {@link #cancel()} aborts all the requests in progress.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class ApacheHttpClient implements HttpClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpClient.class);
+
+    private static final int DEFAULT_TIMEOUT = 10000;
+    private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    /**
+     * Threads of the search manager, no more requests than this run at once.
+     */
+    private static final int SEARCH_WORKERS = 6;
+
+    private static final int MAX_CONNECTIONS_PER_ROUTE = SEARCH_WORKERS;
+
+    /**
+     * Room for the idle keep-alive connections of the other engines.
+     */
+    private static final int MAX_TOTAL_CONNECTIONS = 4 * SEARCH_WORKERS;
+
+    private static final DefaultHttpClient CLIENT = setupHttpClient();
+
+    private HttpClientListener listener;
+
+    private final Set<HttpGet> requests;
+
+    private volatile boolean canceled;
+
+    public ApacheHttpClient() {
+        this.requests = Collections.newSetFromMap(new ConcurrentHashMap<HttpGet, Boolean>());
+    }
+
+    public String get(String url) {
+        return get(url, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
+    }
+
+    public String get(String url, int timeout) {
+        return get(url, timeout, DEFAULT_USER_AGENT);
+    }
+
+    public String get(String url, int timeout, String userAgent) {
+        return get(url, timeout, userAgent, null, null);
+    }
+
+    public String get(String url, int timeout, String userAgent, String referrer, String cookie) {
+        String result = null;
+
+        ByteArrayOutputStream baos = null;
+
+        try {
+            baos = new ByteArrayOutputStream();
+            get(url, baos, timeout, userAgent, referrer, cookie, -1);
+
+            result = new String(baos.toByteArray(), "UTF-8");
+        } catch (Throwable e) {
+            LOG.error("Error getting string from http body response: " + e.getMessage(), e);
+        } finally {
+            closeQuietly(baos);
+        }
+
+        return result;
+    }
+
+    public byte[] getBytes(String url, int timeout, String userAgent, String referrer) {
+        byte[] result = null;
+
+        ByteArrayOutputStream baos = null;
+
+        try {
+            baos = new ByteArrayOutputStream();
+            get(url, baos, timeout, userAgent, referrer, null, -1);
+
+            result = baos.toByteArray();
+        } catch (Throwable e) {
+            LOG.error("Error getting string from http body response: " + e.getMessage(), e);
+        } finally {
+            closeQuietly(baos);
+        }
+
+        return result;
+    }
+
+    public void save(String url, File file, boolean resume) throws IOException {
+        save(url, file, resume, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
+    }
+
+    public void save(String url, File file, boolean resume, int timeout, String userAgent) throws IOException {
+        FileOutputStream fos = null;
+        long rangeStart = 0;
+
+        try {
+            if (resume && file.exists()) {
+                fos = new FileOutputStream(file, true);
+                rangeStart = file.length();
+            } else {
+                fos = new FileOutputStream(file, false);
+                rangeStart = -1;
+            }
+
+            get(url, fos, timeout, userAgent, null, null, rangeStart);
+        } finally {
+            closeQuietly(fos);
+        }
+    }
+
+    /**
+     * Segmented downloads are not supported by this client, the file is saved
+     * with a single connection. A segmented partial file can't be appended to,
+     * so in that case the download starts over.
+     */
+    public void saveSegmented(String url, File file, boolean resume, int segments) throws IOException {
+        if (HttpSegments.getDownloaded(file) >= 0) {
+            HttpSegments.delete(file);
+            resume = false;
+        }
+        save(url, file, resume);
+    }
+
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart) throws IOException {
+        canceled = false;
+
+        HttpGet httpGet;
+        try {
+            httpGet = new HttpGet(url);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid url: " + url, e);
+        }
+
+        HttpParams params = httpGet.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, timeout);
+        HttpConnectionParams.setSoTimeout(params, timeout);
+        ConnManagerParams.setTimeout(params, timeout);
+        HttpClientParams.setRedirecting(params, true);
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpProtocolParams.setUserAgent(params, userAgent);
+
+        if (referrer != null) {
+            httpGet.addHeader("Referer", referrer);
+        }
+
+        if (cookie != null) {
+            httpGet.addHeader("Cookie", cookie);
+        }
+
+        if (rangeStart > 0) {
+            httpGet.addHeader("Range", "bytes=" + rangeStart + "-");
+        }
+
+        // cookies only live for the redirects of this request
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+
+        requests.add(httpGet);
+        try {
+            get(httpGet, context, out, rangeStart);
+        } finally {
+            requests.remove(httpGet);
+        }
+    }
+
+    private void get(HttpGet httpGet, HttpContext context, OutputStream out, long rangeStart) throws IOException {
+        HttpResponse response = CLIENT.execute(httpGet, context);
+        HttpEntity entity = response.getEntity();
+
+        int httpResponseCode = response.getStatusLine().getStatusCode();
+
+        if (httpResponseCode != HttpURLConnection.HTTP_OK && httpResponseCode != HttpURLConnection.HTTP_PARTIAL) {
+            releaseQuietly(entity);
+            throw new ResponseCodeNotSupportedException(httpResponseCode);
+        }
+
+        onHeaders(getHeaderFields(response));
+
+        try {
+            checkRangeSupport(rangeStart, response);
+        } catch (IOException e) {
+            releaseQuietly(entity);
+            throw e;
+        }
+
+        InputStream in = null;
+
+        try {
+            if (entity != null) {
+                in = entity.getContent();
+
+                byte[] b = new byte[16384];
+                int n = 0;
+                while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                    if (!canceled) {
+                        out.write(b, 0, n);
+                        onData(b, 0, n);
+                    }
+                }
+            }
+
+            closeQuietly(out);
+
+            if (canceled) {
+                onCancel();
+            } else {
+                onComplete();
+            }
+        } catch (Exception e) {
+            onError(e);
+        } finally {
+            if (canceled) {
+                // don't drain the rest of the body just to reuse the connection
+                httpGet.abort();
+            } else {
+                // closing the content returns the connection to the pool
+                closeQuietly(in);
+            }
+        }
+    }
+
+    private void checkRangeSupport(long rangeStart, HttpResponse response) throws RangeNotSupportedException {
+        Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+
+        boolean hasContentRange = response.getFirstHeader("Content-Range") != null;
+        boolean hasAcceptRanges = acceptRanges != null && acceptRanges.getValue().equals("bytes");
+
+        if (rangeStart > 0 && !hasContentRange && !hasAcceptRanges) {
+            RangeNotSupportedException rangeNotSupportedException = new RangeNotSupportedException("Server does not support bytes range request");
+            onError(rangeNotSupportedException);
+            throw rangeNotSupportedException;
+        }
+    }
+
+    private static Map<String, List<String>> getHeaderFields(HttpResponse response) {
+        Map<String, List<String>> fields = new HashMap<String, List<String>>();
+
+        // same as URLConnection, the status line under the null key
+        fields.put(null, Collections.singletonList(response.getStatusLine().toString()));
+
+        for (Header header : response.getAllHeaders()) {
+            List<String> values = fields.get(header.getName());
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                fields.put(header.getName(), values);
+            }
+            values.add(header.getValue());
+        }
+
+        return fields;
+    }
+
+    private void onHeaders(Map<String, List<String>> headerFields) {
+        if (getListener() != null) {
+            try {
+                getListener().onHeaders(this, headerFields);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onCancel() {
+        if (getListener() != null) {
+            try {
+                getListener().onCancel(this);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onData(byte[] b, int i, int n) {
+        if (getListener() != null) {
+            try {
+                getListener().onData(this, b, 0, n);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onError(Exception e) {
+        if (getListener() != null) {
+            try {
+                getListener().onError(this, e);
+            } catch (Exception e2) {
+                LOG.warn(e2.getMessage(), e2);
+            }
+        }
+    }
+
+    private void onComplete() {
+        if (getListener() != null) {
+            try {
+                getListener().onComplete(this);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ioe) {
+            // ignore
+        }
+    }
+
+    private static void releaseQuietly(HttpEntity entity) {
+        try {
+            if (entity != null) {
+                entity.consumeContent();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public void setListener(HttpClientListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public HttpClientListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+
+        for (HttpGet r : requests) {
+            r.abort(); // unblocks a thread waiting for the server
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    private static DefaultHttpClient setupHttpClient() {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", newSSLSocketFactory(), 443));
+        BasicHttpParams params = new BasicHttpParams();
+        ConnManagerParams.setTimeout(params, DEFAULT_TIMEOUT);
+        params.setParameter(ConnManagerPNames.MAX_CONNECTIONS_PER_ROUTE, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+        params.setIntParameter(ConnManagerPNames.MAX_TOTAL_CONNECTIONS, MAX_TOTAL_CONNECTIONS);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
+
+        DefaultHttpClient httpClient = new DefaultHttpClient(cm, params);
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+
+        httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                if (!request.containsHeader("Accept-Encoding") && !request.containsHeader("Range")) {
+                    request.addHeader("Accept-Encoding", "gzip, deflate");
+                }
+            }
+        });
+
+        httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+            public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                HttpEntity entity = response.getEntity();
+                Header ceheader = entity != null ? entity.getContentEncoding() : null;
+                if (ceheader != null) {
+                    HeaderElement[] codecs = ceheader.getElements();
+                    for (int i = 0; i < codecs.length; i++) {
+                        if (codecs[i].getName().equalsIgnoreCase("gzip")) {
+                            response.setEntity(new GzipDecompressingEntity(entity));
+                            return;
+                        }
+                        if (codecs[i].getName().equalsIgnoreCase("deflate")) {
+                            response.setEntity(new DeflateDecompressingEntity(entity));
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+
+        return httpClient;
+    }
+
+    /**
+     * A factory of our own, the hostname verifier of the default one is
+     * shared by every user of the library.
+     */
+    private static SSLSocketFactory newSSLSocketFactory() {
+        try {
+            SSLSocketFactory factory = new SSLSocketFactory(SSLContext.getDefault());
+            factory.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+            return factory;
+        } catch (NoSuchAlgorithmException e) {
+            LOG.warn("Unable to create the SSL socket factory, using the default one", e);
+            return SSLSocketFactory.getSocketFactory();
+        }
+    }
+
+    private static final class GzipDecompressingEntity extends HttpEntityWrapper {
+
+        public GzipDecompressingEntity(final HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException, IllegalStateException {
+            return new GZIPInputStream(wrappedEntity.getContent());
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+    }
+
+    private static final class DeflateDecompressingEntity extends HttpEntityWrapper {
+
+        public DeflateDecompressingEntity(final HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException, IllegalStateException {
+            return new InflaterInputStream(wrappedEntity.getContent());
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+    }
+}
@@ -24,11 +24,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -49,9 +57,15 @@ final class FWHttpClient implements HttpClient {
 
     private static final int DEFAULT_TIMEOUT = 10000;
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    /** Don't split in segments smaller than this */
+    private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /** Interval to flush the data and store the segments state */
+    private static final long SEGMENTS_STORE_INTERVAL = 2000;
+
     private HttpClientListener listener;
 
-    private boolean canceled;
+    private volatile boolean canceled;
 
     public String get(String url) {
         return get(url, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
@@ -113,12 +127,12 @@ final class FWHttpClient implements HttpClient {
 
     public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException {
         FileOutputStream fos = null;
-        int rangeStart = 0;
+        long rangeStart = 0;
 
         try {
             if (resume && file.exists()) {
                 fos = new FileOutputStream(file, true);
-                rangeStart = (int) file.length();
+                rangeStart = file.length();
             } else {
                 fos = new FileOutputStream(file, false);
                 rangeStart = -1;
@@ -130,42 +144,215 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private String buildRange(int rangeStart, int rangeLength) {
-        String prefix = "bytes=" + rangeStart + "-";
-        return prefix + ((rangeLength > -1) ? (rangeStart + rangeLength) : "");
+    public void saveSegmented(String url, File file, boolean resume, int segments) throws IOException {
+        saveSegmented(url, file, resume, segments, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart) throws IOException {
-        get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1);
-    }
-
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart, int rangeLength) throws IOException {
+    /**
+     * Downloads the file in <code>segments</code> byte ranges fetched in parallel and written
+     * in place in a preallocated file. The state of each segment is stored with {@link HttpSegments},
+     * so a paused or failed download resumes each segment where it was.
+     * <p>
+     * If the server does not support ranges, or the file is too small to split, this falls back
+     * to a regular {@link #save(String, File, boolean, int, String)}.
+     */
+    public void saveSegmented(String url, File file, boolean resume, int segments, int timeout, String userAgent) throws IOException {
         canceled = false;
-        URL u = new URL(url);
-        URLConnection conn = u.openConnection();
 
-        conn.setReadTimeout(timeout);
-        conn.setRequestProperty("User-Agent", userAgent);
+        HttpSegments state = resume ? HttpSegments.load(file) : null;
 
-        if (referrer != null) {
-            conn.setRequestProperty("Referer", referrer);
+        if (state == null || !file.exists() || file.length() != state.getLength()) {
+            if (resume && state == null && file.exists()) {
+                // partial data of a regular download
+                save(url, file, true, timeout, userAgent);
+                return;
+            }
+
+            HttpSegments.delete(file);
+
+            long length = getRangedLength(url, timeout, userAgent);
+            int count = (int) Math.min(segments, length / MIN_SEGMENT_SIZE);
+
+            if (count < 2) {
+                save(url, file, false, timeout, userAgent);
+                return;
+            }
+
+            state = HttpSegments.create(file, length, count);
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                closeQuietly(raf);
+            }
+            state.store();
         }
 
-        if (cookie != null) {
-            conn.setRequestProperty("Cookie", cookie);
+        downloadSegments(url, file, state, timeout, userAgent);
+    }
+
+    private void downloadSegments(final String url, File file, final HttpSegments state, final int timeout, final String userAgent) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final FileChannel channel = raf.getChannel();
+
+        ExecutorService executor = Executors.newFixedThreadPool(state.getCount());
+
+        try {
+            // segments are waited in the order they end, so the first failure stops the others
+            CompletionService<Object> completion = new ExecutorCompletionService<Object>(executor);
+            int submitted = 0;
+
+            for (int i = 0; i < state.getCount(); i++) {
+                final int segment = i;
+                if (!state.isComplete(segment)) {
+                    completion.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                downloadSegment(url, channel, state, segment, timeout, userAgent);
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }, null);
+                    submitted++;
+                }
+            }
+
+            Exception error = null;
+
+            for (int i = 0; i < submitted; i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = unwrap(e);
+                        canceled = true; // stop the other segments
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    canceled = true;
+                }
+            }
+
+            channel.force(false);
+
+            if (error != null) {
+                state.store();
+                onError(error);
+            } else if (canceled) {
+                state.store();
+                onCancel();
+            } else {
+                closeQuietly(raf);
+                state.delete();
+                onComplete();
+            }
+        } finally {
+            executor.shutdownNow();
+            closeQuietly(raf);
         }
+    }
 
-        if (conn instanceof HttpURLConnection) {
-            ((HttpURLConnection) conn).setInstanceFollowRedirects(true);
+    private void downloadSegment(String url, FileChannel channel, HttpSegments state, int segment, int timeout, String userAgent) throws IOException {
+        long position = state.getPosition(segment);
+        long end = state.getEnd(segment);
+
+        URLConnection conn = openConnection(url, timeout, userAgent, null, null, position, end);
+
+        InputStream in = null;
+
+        try {
+            in = conn.getInputStream();
+
+            if (getResponseCode(conn) != HttpURLConnection.HTTP_PARTIAL) {
+                throw new RangeNotSupportedException("Server does not support bytes range request");
+            }
+
+            long lastStore = System.currentTimeMillis();
+
+            byte[] b = new byte[65536];
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            int n = 0;
+            while (!canceled && position <= end && (n = in.read(b, 0, (int) Math.min(b.length, end - position + 1))) != -1) {
+                buffer.clear();
+                buffer.limit(n);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+
+                state.setPosition(segment, position);
+                onSegmentData(b, n);
+
+                long now = System.currentTimeMillis();
+                if (now - lastStore > SEGMENTS_STORE_INTERVAL) {
+                    channel.force(false);
+                    state.store();
+                    lastStore = now;
+                }
+            }
+
+            if (!canceled && position <= end) {
+                throw new IOException("Segment " + segment + " ended before expected, position=" + position + ", end=" + end);
+            }
+        } finally {
+            closeQuietly(in);
+            closeQuietly(conn);
         }
+    }
 
-        if (conn instanceof HttpsURLConnection) {
-            setHostnameVerifier((HttpsURLConnection) conn);
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException && cause.getCause() instanceof IOException) {
+            cause = cause.getCause();
         }
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    /**
+     * Asks for the first byte of the resource to know if ranges are supported and the full length.
+     * 
+     * @return the length of the resource, or -1 if unknown or ranges are not supported
+     */
+    private long getRangedLength(String url, int timeout, String userAgent) throws IOException {
+        URLConnection conn = openConnection(url, timeout, userAgent, null, null, 0, 0);
+
+        InputStream in = null;
+
+        try {
+            in = conn.getInputStream();
+
+            onHeaders(conn.getHeaderFields());
 
-        if (rangeStart > 0) {
-            conn.setRequestProperty("Range", buildRange(rangeStart, rangeLength));
+            String contentRange = conn.getHeaderField("Content-Range");
+
+            if (getResponseCode(conn) == HttpURLConnection.HTTP_PARTIAL && contentRange != null) {
+                int idx = contentRange.lastIndexOf('/');
+                if (idx != -1) {
+                    try {
+                        return Long.parseLong(contentRange.substring(idx + 1).trim());
+                    } catch (NumberFormatException e) {
+                        // length unknown, "*"
+                    }
+                }
+            }
+
+            return -1;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(conn);
         }
+    }
+
+    private String buildRange(long rangeStart, long rangeEnd) {
+        String prefix = "bytes=" + rangeStart + "-";
+        return prefix + ((rangeEnd > -1) ? rangeEnd : "");
+    }
+
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart) throws IOException {
+        canceled = false;
+        URLConnection conn = openConnection(url, timeout, userAgent, referrer, cookie, rangeStart, -1);
 
         InputStream in = conn.getInputStream();
 
@@ -203,6 +390,40 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
+    /**
+     * @param rangeStart first byte to ask for, no range if <= 0 and rangeEnd < 0
+     * @param rangeEnd last byte (inclusive) to ask for, -1 to the end of the resource
+     */
+    private URLConnection openConnection(String url, int timeout, String userAgent, String referrer, String cookie, long rangeStart, long rangeEnd) throws IOException {
+        URL u = new URL(url);
+        URLConnection conn = u.openConnection();
+
+        conn.setReadTimeout(timeout);
+        conn.setRequestProperty("User-Agent", userAgent);
+
+        if (referrer != null) {
+            conn.setRequestProperty("Referer", referrer);
+        }
+
+        if (cookie != null) {
+            conn.setRequestProperty("Cookie", cookie);
+        }
+
+        if (conn instanceof HttpURLConnection) {
+            ((HttpURLConnection) conn).setInstanceFollowRedirects(true);
+        }
+
+        if (conn instanceof HttpsURLConnection) {
+            setHostnameVerifier((HttpsURLConnection) conn);
+        }
+
+        if (rangeStart > 0 || rangeEnd > -1) {
+            conn.setRequestProperty("Range", buildRange(Math.max(0, rangeStart), rangeEnd));
+        }
+
+        return conn;
+    }
+
     private void setHostnameVerifier(HttpsURLConnection conn) {
         conn.setHostnameVerifier(new HostnameVerifier() {
             @Override
@@ -222,7 +443,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private void checkRangeSupport(int rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
+    private void checkRangeSupport(long rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
 
         boolean hasContentRange = conn.getHeaderField("Content-Range") != null;
         boolean hasAcceptRanges = conn.getHeaderField("Accept-Ranges") != null && conn.getHeaderField("Accept-Ranges").equals("bytes");
@@ -254,6 +475,13 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
+    /**
+     * Segments call this from several threads, listeners expect one call at a time.
+     */
+    private synchronized void onSegmentData(byte[] b, int n) {
+        onData(b, 0, n);
+    }
+
     private void onData(byte[] b, int i, int n) {
         if (getListener() != null) {
             try {
@@ -48,6 +48,11 @@ public interface HttpClient {
 
     public void save(String url, File file, boolean resume, int timeout, String userAgent) throws IOException;
 
+    /**
+     * Saves the file fetching <code>segments</code> byte ranges in parallel when the server supports it.
+     */
+    public void saveSegmented(String url, File file, boolean resume, int segments) throws IOException;
+
     public void cancel();
 
     public boolean isCanceled();
@@ -86,7 +91,7 @@ public interface HttpClient {
 
         private static final long serialVersionUID = -335661829606230147L;
 
-        public HttpRangeOutOfBoundsException(int rangeStart, long expectedFileSize) {
+        public HttpRangeOutOfBoundsException(long rangeStart, long expectedFileSize) {
             super("HttpRange Out of Bounds error: start=" + rangeStart + " expected file size=" + expectedFileSize);
         }
 
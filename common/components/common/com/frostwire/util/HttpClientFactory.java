@@ -31,7 +31,7 @@ public class HttpClientFactory {
     public static HttpClient newInstance(HttpClientType type) {
         switch (type) {
         case Apache:
-            throw new UnsupportedOperationException();
+            return new ApacheHttpClient();
         case PureJava:
             return new FWHttpClient();
         default:
@@ -0,0 +1,207 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Resume state of a segmented HTTP download, stored next to the
+ * downloaded file as <code>file.segments</code>.
+ * <p>
+ * Each segment is a byte range <code>[start, end]</code> (inclusive) of the
+ * remote file and the position up to where it has been written.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class HttpSegments {
+
+    private static final int MAGIC = 0x46575347; // FWSG
+
+    /** More segments than this means a damaged state file */
+    private static final int MAX_COUNT = 1024;
+
+    private final File stateFile;
+    private final long length;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] positions;
+
+    private HttpSegments(File stateFile, long length, long[] starts, long[] ends, long[] positions) {
+        this.stateFile = stateFile;
+        this.length = length;
+        this.starts = starts;
+        this.ends = ends;
+        this.positions = positions;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getCount() {
+        return starts.length;
+    }
+
+    public long getEnd(int segment) {
+        return ends[segment];
+    }
+
+    public synchronized long getPosition(int segment) {
+        return positions[segment];
+    }
+
+    public synchronized void setPosition(int segment, long position) {
+        positions[segment] = position;
+    }
+
+    public synchronized boolean isComplete(int segment) {
+        return positions[segment] > ends[segment];
+    }
+
+    public synchronized long getDownloaded() {
+        long downloaded = 0;
+        for (int i = 0; i < starts.length; i++) {
+            downloaded += positions[i] - starts[i];
+        }
+        return downloaded;
+    }
+
+    public synchronized void store() throws IOException {
+        File temp = new File(stateFile.getPath() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(length);
+            out.writeInt(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeLong(positions[i]);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(stateFile)) {
+            stateFile.delete();
+            if (!temp.renameTo(stateFile)) {
+                throw new IOException("Unable to store segments state: " + stateFile);
+            }
+        }
+    }
+
+    public void delete() {
+        stateFile.delete();
+    }
+
+    /**
+     * Splits the file in <code>count</code> segments of (almost) the same size.
+     */
+    public static HttpSegments create(File file, long length, int count) {
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        long[] positions = new long[count];
+
+        long segmentSize = length / count;
+
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = (i == count - 1) ? length - 1 : (i + 1) * segmentSize - 1;
+            positions[i] = starts[i];
+        }
+
+        return new HttpSegments(stateFile(file), length, starts, ends, positions);
+    }
+
+    /**
+     * @return the stored state or null if there is no valid state for the file.
+     */
+    public static HttpSegments load(File file) {
+        File stateFile = stateFile(file);
+
+        if (!stateFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(stateFile));
+
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+
+            long length = in.readLong();
+            int count = in.readInt();
+
+            if (length < 0 || count <= 0 || count > MAX_COUNT) {
+                return null;
+            }
+
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            long[] positions = new long[count];
+
+            for (int i = 0; i < count; i++) {
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+                positions[i] = in.readLong();
+
+                if (starts[i] < 0 || ends[i] >= length || positions[i] < starts[i] || positions[i] > ends[i] + 1) {
+                    return null;
+                }
+            }
+
+            return new HttpSegments(stateFile, length, starts, ends, positions);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes already downloaded of a segmented download, -1 if
+     * the file is not a segmented download.
+     */
+    public static long getDownloaded(File file) {
+        HttpSegments segments = load(file);
+        return segments != null ? segments.getDownloaded() : -1;
+    }
+
+    public static void delete(File file) {
+        stateFile(file).delete();
+    }
+
+    private static File stateFile(File file) {
+        return new File(file.getPath() + ".segments");
+    }
+}
@@ -50,6 +50,19 @@ public final class JsonUtils {
         return gson.toJson(obj);
     }
 
+    /**
+     * This method serializes the specified object into its equivalent Json
+     * representation, writing it to the given writer.
+     * 
+     * Useful to stream big lists one element at a time.
+     * 
+     * @param obj the object for which Json representation is to be created
+     * @param writer where to write the Json representation of obj
+     */
+    public static void toJson(Object obj, Appendable writer) {
+        gson.toJson(obj, writer);
+    }
+
     /**
      * This method deserializes the specified Json into an object of the specified class.
      * 
@@ -18,6 +18,8 @@
 package com.frostwire.search;
 
 /**
+ * Implementations must be thread safe, the cache is shared by all the
+ * concurrent crawl tasks without any external synchronization.
  * 
  * @author gubatron
  * @author aldenml
@@ -33,5 +35,14 @@ public interface CrawlCache {
 
     public void clear();
 
+    /**
+     * Number of entries in the cache, implementations should keep this value
+     * at hand and not compute it by scanning the storage.
+     */
     public long size();
+
+    /**
+     * Total number of bytes of the cached data.
+     */
+    public long sizeInBytes();
 }
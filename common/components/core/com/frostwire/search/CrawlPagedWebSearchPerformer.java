@@ -19,6 +19,14 @@
 package com.frostwire.search;
 
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +47,16 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     private static CrawlCache cache = null;
     private static MagnetDownloader magnetDownloader = null;
 
+    /**
+     * Downloads in progress by crawl url, shared by all the performers so the
+     * same torrent returned by several engines is only downloaded once.
+     */
+    private static final ConcurrentMap<String, Future<byte[]>> inflight = new ConcurrentHashMap<String, Future<byte[]>>();
+
+    private static final AtomicLong cacheHits = new AtomicLong(0);
+    private static final AtomicLong cacheMisses = new AtomicLong(0);
+    private static final AtomicLong coalescedFetches = new AtomicLong(0);
+
     private int numCrawls;
 
     public CrawlPagedWebSearchPerformer(long token, String keywords, int timeout, int pages, int numCrawls) {
@@ -75,25 +93,10 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                 if (url != null) {
                     byte[] data = cacheGet(url);
 
-                    if (data == null) { // not a big deal about synchronization here
-                        LOG.debug("Downloading data for: " + url);
-
-                        if (url.startsWith("magnet")) {
-                            data = fetchMagnet(url);
-                        } else {
-                            data = fetchBytes(url, sr.getDetailsUrl(), DEFAULT_CRAWL_TIMEOUT);
-                        }
-
-                        //we put this here optimistically hoping this is actually
-                        //valid data. if no data can be crawled from this we remove it
-                        //from the cache. we do this because this same data may come
-                        //from another search engine and this way we avoid the
-                        //expense of performing another download.
-                        if (data != null) {
-                            cachePut(url, data);
-                        } else {
-                            LOG.warn("Failed to download data: " + url);
-                        }
+                    if (data != null) {
+                        cacheHits.incrementAndGet();
+                    } else {
+                        data = fetchCoalesced(url, sr.getDetailsUrl());
                     }
 
                     try {
@@ -125,6 +128,75 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     protected abstract List<? extends SearchResult> crawlResult(T sr, byte[] data) throws Exception;
 
+    /**
+     * Downloads the crawl data, if another performer is already downloading the
+     * same url this waits for that download instead of starting a new one.
+     */
+    private byte[] fetchCoalesced(final String url, final String referrer) {
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return fetchAndCache(url, referrer);
+            }
+        });
+
+        Future<byte[]> f = inflight.putIfAbsent(url, task);
+
+        if (f == null) {
+            f = task;
+            cacheMisses.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inflight.remove(url, task);
+            }
+        } else {
+            coalescedFetches.incrementAndGet();
+            LOG.debug("Waiting for in-flight download of: " + url);
+        }
+
+        try {
+            return f.get(DEFAULT_CRAWL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Timeout waiting for in-flight download of: " + url);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            LOG.warn("Error downloading data: " + url + ", e=" + e.getMessage());
+        }
+
+        return null;
+    }
+
+    private byte[] fetchAndCache(String url, String referrer) {
+        // it could have been downloaded between the cache miss and the start of this flight
+        byte[] data = cacheGet(url);
+        if (data != null) {
+            return data;
+        }
+
+        LOG.debug("Downloading data for: " + url);
+
+        if (url.startsWith("magnet")) {
+            data = fetchMagnet(url);
+        } else {
+            data = fetchBytes(url, referrer, DEFAULT_CRAWL_TIMEOUT);
+        }
+
+        //we put this here optimistically hoping this is actually
+        //valid data. if no data can be crawled from this we remove it
+        //from the cache. we do this because this same data may come
+        //from another search engine and this way we avoid the
+        //expense of performing another download.
+        if (data != null) {
+            cachePut(url, data);
+        } else {
+            LOG.warn("Failed to download data: " + url);
+        }
+
+        return data;
+    }
+
     protected byte[] fetchMagnet(String magnet) {
         if (magnetDownloader != null) {
             return magnetDownloader.download(magnet, DEFAULT_MAGNET_DOWNLOAD_TIMEOUT);
@@ -134,29 +206,21 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         }
     }
 
+    // the cache implementation is responsible of the thread safety, see TieredCrawlCache
+
     private byte[] cacheGet(String key) {
-        if (cache != null) {
-            synchronized (cache) {
-                return cache.get(key);
-            }
-        } else {
-            return null;
-        }
+        return cache != null ? cache.get(key) : null;
     }
 
     private void cachePut(String key, byte[] data) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.put(key, data);
-            }
+            cache.put(key, data);
         }
     }
 
     private void cacheRemove(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.remove(key);
-            }
+            cache.remove(key);
         }
     }
 
@@ -173,19 +237,30 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     public static void clearCache() {
         if (cache != null) {
-            synchronized (cache) {
-                cache.clear();
-            }
+            cache.clear();
         }
     }
 
     public static long getCacheSize() {
-        long result = 0;
-        if (cache != null) {
-            synchronized (cache) {
-                result = cache.size();
-            }
-        }
-        return result;
+        return cache != null ? cache.size() : 0;
+    }
+
+    public static long getCacheSizeInBytes() {
+        return cache != null ? cache.sizeInBytes() : 0;
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Number of crawls that shared an in-flight download instead of starting their own.
+     */
+    public static long getCoalescedFetches() {
+        return coalescedFetches.get();
     }
 }
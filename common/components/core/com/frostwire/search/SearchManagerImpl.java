@@ -17,19 +17,40 @@
 
 package com.frostwire.search;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.frostwire.search.torrent.TorrentSearchResult;
+
 /**
+ * Runs the search performers and the crawls of their results in a fixed pool of threads.
+ * <p>
+ * Tasks are indexed by search token, so the accounting on every submit and completion
+ * is constant time. The priority of a queued task is, in order:
+ * <ul>
+ * <li>performs before crawls, so a fresh search is not delayed by the crawls of older ones</li>
+ * <li>the number of tasks of its token pending at submit time, a round robin between tokens</li>
+ * <li>newer searches before older ones</li>
+ * </ul>
+ * When a token is stopped its queued tasks are dropped from the queue instead of
+ * being run to a no-op. A torrent found by several engines is crawled only once
+ * per token, by info hash, unless that crawl fails to produce results.
  * 
  * @author gubatron
  * @author aldenml
@@ -41,14 +62,24 @@ public class SearchManagerImpl implements SearchManager {
 
     private static final int DEFAULT_NTHREADS = 4;
 
-    private final ExecutorService executor;
-    private final List<SearchTask> tasks;
+    private final ThreadPoolExecutor executor;
+    private final Map<Long, TokenTasks> tokens;
+    private final AtomicLong sequence;
+    private final AtomicLong skippedCrawls;
+
+    // the crawl running in the thread, to know if it produced results
+    private final ThreadLocal<CrawlTask> currentCrawl;
+
+    private long generations;
 
     private SearchManagerListener listener;
 
     public SearchManagerImpl(int nThreads) {
         this.executor = newFixedThreadPool(nThreads);
-        this.tasks = Collections.synchronizedList(new LinkedList<SearchTask>());
+        this.tokens = new HashMap<Long, TokenTasks>();
+        this.sequence = new AtomicLong(0);
+        this.skippedCrawls = new AtomicLong(0);
+        this.currentCrawl = new ThreadLocal<CrawlTask>();
     }
 
     public SearchManagerImpl() {
@@ -69,10 +100,7 @@ public class SearchManagerImpl implements SearchManager {
 
             performer.registerListener(new PerformerResultListener(this));
 
-            SearchTask task = new PerformTask(this, performer, getOrder(performer.getToken()));
-
-            tasks.add(task);
-            executor.execute(task);
+            submit(new PerformTask(this, performer));
         } else {
             LOG.warn("Search performer is null, review your logic");
         }
@@ -108,7 +136,39 @@ public class SearchManagerImpl implements SearchManager {
             Thread.currentThread().interrupt();
         }
 
-        return tasks.isEmpty();
+        synchronized (tokens) {
+            return tokens.isEmpty();
+        }
+    }
+
+    /**
+     * Number of tasks of the search waiting in the queue to be run.
+     */
+    public int getQueueDepth(long token) {
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            return t != null ? t.queued : 0;
+        }
+    }
+
+    /**
+     * Number of tasks of the search queued or running.
+     */
+    public int getPendingTasks(long token) {
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            return t != null ? t.tasks.size() : 0;
+        }
+    }
+
+    /**
+     * Average time in milliseconds the started tasks of the search waited in the queue.
+     */
+    public long getAverageQueueLatency(long token) {
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            return t != null ? t.averageLatency() : 0;
+        }
     }
 
     protected void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
@@ -131,25 +191,103 @@ public class SearchManagerImpl implements SearchManager {
         }
     }
 
+    private void submit(SearchTask task) {
+        long token = task.getToken();
+
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            if (t == null) {
+                t = new TokenTasks(++generations);
+                tokens.put(token, t);
+            } else if (t.stale && task instanceof PerformTask) {
+                // same token searched again after a stop, it's a fresh search
+                t.generation = ++generations;
+                t.stale = false;
+            }
+
+            task.order = t.tasks.size();
+            task.generation = t.generation;
+            task.seq = sequence.incrementAndGet();
+            task.submitted = System.currentTimeMillis();
+
+            t.tasks.add(task);
+            t.queued++;
+        }
+
+        executor.execute(task);
+    }
+
     private void stopTasks(long token) {
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (token == -1L || task.getToken() == token) {
-                    task.stop();
+        List<SearchTask> stopped = new ArrayList<SearchTask>();
+
+        synchronized (tokens) {
+            if (token == -1L) {
+                for (TokenTasks t : tokens.values()) {
+                    t.stale = true;
+                    stopped.addAll(t.tasks);
+                }
+            } else {
+                TokenTasks t = tokens.get(token);
+                if (t != null) {
+                    t.stale = true;
+                    stopped.addAll(t.tasks);
                 }
             }
         }
+
+        if (stopped.isEmpty()) {
+            return;
+        }
+
+        Set<SearchTask> set = Collections.newSetFromMap(new IdentityHashMap<SearchTask, Boolean>());
+        for (SearchTask task : stopped) {
+            task.stop();
+            set.add(task);
+        }
+
+        // one pass over the queue instead of a remove (a scan) per task, the
+        // tasks of other tokens are put back in their priority order
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        List<Runnable> queued = new ArrayList<Runnable>(queue.size());
+        queue.drainTo(queued);
+
+        List<Runnable> kept = new ArrayList<Runnable>(queued.size());
+        for (Runnable r : queued) {
+            if (!set.contains(r)) {
+                kept.add(r);
+            }
+        }
+        queue.addAll(kept);
+
+        for (Runnable r : queued) {
+            if (set.contains(r)) {
+                // never started, drop it
+                onCompleted((SearchTask) r, false);
+            }
+        }
+    }
+
+    /**
+     * Number of crawls not scheduled because the same torrent was already
+     * crawled for the search from another engine.
+     */
+    public long getSkippedCrawls() {
+        return skippedCrawls.get();
     }
 
     private void crawl(SearchPerformer performer, CrawlableSearchResult sr) {
         if (performer != null && !performer.isStopped()) {
+            String hash = getHash(sr);
+
+            if (isCrawled(performer.getToken(), hash)) {
+                skippedCrawls.incrementAndGet();
+                return;
+            }
+
             try {
-                SearchTask task = new CrawlTask(this, performer, sr, getOrder(performer.getToken()));
-                tasks.add(task);
-                executor.execute(task);
+                submit(new CrawlTask(this, performer, sr, hash));
             } catch (Throwable e) {
+                forgetCrawled(performer.getToken(), hash);
                 LOG.warn("Error scheduling crawling of search result: " + sr);
             }
         } else {
@@ -157,46 +295,122 @@ public class SearchManagerImpl implements SearchManager {
         }
     }
 
-    private void checkIfFinished(SearchPerformer performer) {
-        SearchTask pendingTask = null;
+    /**
+     * The info hash of a torrent result, null for other results.
+     */
+    private static String getHash(CrawlableSearchResult sr) {
+        if (!(sr instanceof TorrentSearchResult)) {
+            return null;
+        }
+        String hash = ((TorrentSearchResult) sr).getHash();
+        if (hash == null || hash.length() == 0) {
+            return null;
+        }
+        return hash.toLowerCase(Locale.US);
+    }
 
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext() && pendingTask == null) {
-                SearchTask task = it.next();
-                if (task.getToken() == performer.getToken() && !task.isStopped()) {
-                    pendingTask = task;
-                }
+    /**
+     * Returns true if a torrent with the same info hash is being crawled, or
+     * was crawled, for the token, marks it as crawled otherwise. The mark is
+     * removed if the crawl fails, see {@link #onCompleted(SearchTask, boolean)}.
+     */
+    private boolean isCrawled(long token, String hash) {
+        if (hash == null) {
+            return false;
+        }
 
-                if (task.isStopped()) {
-                    it.remove();
-                }
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            return t != null && !t.crawled.add(hash);
+        }
+    }
+
+    private void forgetCrawled(long token, String hash) {
+        if (hash == null) {
+            return;
+        }
+
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            if (t != null) {
+                t.crawled.remove(hash);
             }
         }
+    }
 
-        if (pendingTask == null) {
-            onFinished(performer.getToken());
+    private void onStarted(SearchTask task) {
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(task.getToken());
+            if (t != null) {
+                t.queued--;
+                t.started++;
+                t.totalLatency += System.currentTimeMillis() - task.submitted;
+            }
         }
     }
 
-    private int getOrder(long token) {
-        int order = 0;
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (task.getToken() == token) {
-                    order = order + 1;
+    private void onCompleted(SearchTask task, boolean started) {
+        long token = task.getToken();
+        TokenTasks finished = null;
+
+        synchronized (tokens) {
+            TokenTasks t = tokens.get(token);
+            if (t != null && t.tasks.remove(task)) {
+                if (task instanceof CrawlTask) {
+                    CrawlTask crawl = (CrawlTask) task;
+                    if (crawl.hash != null && !crawl.found) {
+                        // dropped or no results, another engine's copy can be crawled
+                        t.crawled.remove(crawl.hash);
+                    }
+                }
+                if (!started) {
+                    t.queued--;
+                }
+                if (t.tasks.isEmpty()) {
+                    tokens.remove(token);
+                    finished = t;
                 }
             }
         }
-        return order;
+
+        if (finished != null) {
+            LOG.debug("Search finished, token: " + token + ", tasks run: " + finished.started + ", avg queue latency: " + finished.averageLatency() + "ms");
+            onFinished(token);
+        }
     }
 
-    private static ExecutorService newFixedThreadPool(int nThreads) {
+    private static ThreadPoolExecutor newFixedThreadPool(int nThreads) {
         return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
     }
 
+    /**
+     * The tasks of one search token, guarded by the tokens map lock.
+     */
+    private static final class TokenTasks {
+
+        public final Set<SearchTask> tasks;
+
+        // info hashes of the torrents sent to crawl
+        public final Set<String> crawled;
+
+        public long generation;
+        public boolean stale;
+
+        public int queued;
+        public int started;
+        public long totalLatency;
+
+        public TokenTasks(long generation) {
+            this.tasks = new HashSet<SearchTask>();
+            this.crawled = new HashSet<String>();
+            this.generation = generation;
+        }
+
+        public long averageLatency() {
+            return started > 0 ? totalLatency / started : 0;
+        }
+    }
+
     private static final class PerformerResultListener implements SearchListener {
 
         private final SearchManagerImpl manager;
@@ -207,6 +421,11 @@ public class SearchManagerImpl implements SearchManager {
 
         @Override
         public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+            CrawlTask crawl = manager.currentCrawl.get();
+            if (crawl != null && crawl.performer == performer && !results.isEmpty()) {
+                crawl.found = true;
+            }
+
             List<SearchResult> list = new LinkedList<SearchResult>();
 
             for (SearchResult sr : results) {
@@ -233,12 +452,18 @@ public class SearchManagerImpl implements SearchManager {
 
         protected final SearchManagerImpl manager;
         protected final SearchPerformer performer;
-        private final int order;
+        private final int kind;
+
+        // set at submit time, under the tokens lock
+        int order;
+        long generation;
+        long seq;
+        long submitted;
 
-        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
+        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, int kind) {
             this.manager = manager;
             this.performer = performer;
-            this.order = order;
+            this.kind = kind;
         }
 
         public long getToken() {
@@ -253,31 +478,51 @@ public class SearchManagerImpl implements SearchManager {
             performer.stop();
         }
 
+        @Override
+        public final void run() {
+            manager.onStarted(this);
+            try {
+                if (!isStopped()) {
+                    execute();
+                }
+            } catch (Throwable e) {
+                LOG.warn("Error running search task: " + this + ", e=" + e.getMessage());
+            } finally {
+                manager.onCompleted(this, true);
+            }
+        }
+
+        protected abstract void execute();
+
         @Override
         public int compareTo(SearchTask o) {
-            return order - o.order;
+            if (kind != o.kind) {
+                return kind - o.kind;
+            }
+            if (order != o.order) {
+                return order - o.order;
+            }
+            if (generation != o.generation) {
+                return generation > o.generation ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
         }
     }
 
     private static final class PerformTask extends SearchTask {
 
-        public PerformTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
-            super(manager, performer, order);
+        public PerformTask(SearchManagerImpl manager, SearchPerformer performer) {
+            super(manager, performer, 0);
         }
 
         @Override
-        public void run() {
-            try {
-                if (!isStopped()) {
-                    performer.perform();
-                }
-            } catch (Throwable e) {
-                LOG.warn("Error performing search: " + performer + ", e=" + e.getMessage());
-            } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
-            }
+        protected void execute() {
+            performer.perform();
+        }
+
+        @Override
+        public String toString() {
+            return "Perform: " + performer;
         }
     }
 
@@ -285,24 +530,31 @@ public class SearchManagerImpl implements SearchManager {
 
         private final CrawlableSearchResult sr;
 
-        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, int order) {
-            super(manager, performer, order);
+        // info hash marked as crawled for this task, null if none
+        final String hash;
+
+        // set by the thread running the crawl when the performer reports results
+        boolean found;
+
+        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, String hash) {
+            super(manager, performer, 1);
             this.sr = sr;
+            this.hash = hash;
         }
 
         @Override
-        public void run() {
+        protected void execute() {
+            manager.currentCrawl.set(this);
             try {
-                if (!isStopped()) {
-                    performer.crawl(sr);
-                }
-            } catch (Throwable e) {
-                LOG.warn("Error performing crawling of: " + sr + ", e=" + e.getMessage());
+                performer.crawl(sr);
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
+                manager.currentCrawl.remove();
             }
         }
+
+        @Override
+        public String toString() {
+            return "Crawl: " + sr;
+        }
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawl cache with a concurrent in-memory tier in front of a slower (usually disk) store.
+ * <p>
+ * The memory tier is split in hash striped segments, each one with its own lock and
+ * LRU order, so concurrent crawls only contend when their keys fall in the same
+ * segment, and never wait for the store on a memory hit. Values are kept deflated
+ * when that actually saves space (detail pages do, .torrent files rarely).
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TieredCrawlCache implements CrawlCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TieredCrawlCache.class);
+
+    private static final int NUM_SEGMENTS = 16; // power of two
+
+    private final CrawlCache store;
+    private final Segment[] segments;
+
+    public TieredCrawlCache(CrawlCache store, long maxMemoryBytes) {
+        this.store = store;
+        this.segments = new Segment[NUM_SEGMENTS];
+
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment(maxMemoryBytes / NUM_SEGMENTS);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Segment segment = segmentFor(key);
+
+        Entry entry = segment.get(key);
+        if (entry != null) {
+            return entry.getData();
+        }
+
+        byte[] data = store.get(key);
+        if (data != null) {
+            segment.put(key, Entry.create(data));
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        segmentFor(key).put(key, Entry.create(data));
+        store.put(key, data);
+    }
+
+    @Override
+    public void remove(String key) {
+        segmentFor(key).remove(key);
+        store.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        store.clear();
+    }
+
+    @Override
+    public long size() {
+        return store.size();
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return store.sizeInBytes();
+    }
+
+    /**
+     * Number of bytes used by the memory tier.
+     */
+    public long memorySizeInBytes() {
+        long result = 0;
+        for (Segment segment : segments) {
+            result += segment.bytes();
+        }
+        return result;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (NUM_SEGMENTS - 1)];
+    }
+
+    private static final class Segment {
+
+        private final long maxBytes;
+        private final LinkedHashMap<String, Entry> map;
+
+        private long bytes;
+
+        public Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        }
+
+        public synchronized Entry get(String key) {
+            return map.get(key);
+        }
+
+        public synchronized void put(String key, Entry entry) {
+            if (entry == null || entry.size() > maxBytes) {
+                remove(key);
+                return;
+            }
+
+            Entry old = map.put(key, entry);
+            if (old != null) {
+                bytes -= old.size();
+            }
+            bytes += entry.size();
+
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().getValue().size();
+                it.remove();
+            }
+        }
+
+        public synchronized void remove(String key) {
+            Entry old = map.remove(key);
+            if (old != null) {
+                bytes -= old.size();
+            }
+        }
+
+        public synchronized void clear() {
+            map.clear();
+            bytes = 0;
+        }
+
+        public synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] data;
+        private final int length; // uncompressed length, -1 if data is not compressed
+
+        private Entry(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        public int size() {
+            return data.length;
+        }
+
+        /**
+         * Decompression happens here, outside of the segment lock.
+         */
+        public byte[] getData() {
+            if (length < 0) {
+                return data;
+            }
+
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                byte[] result = new byte[length];
+                int n = 0;
+                while (n < length && !inflater.finished()) {
+                    n += inflater.inflate(result, n, length - n);
+                }
+                return result;
+            } catch (DataFormatException e) {
+                LOG.warn("Error decompressing crawl cache data: " + e.getMessage());
+                return null;
+            } finally {
+                inflater.end();
+            }
+        }
+
+        public static Entry create(byte[] data) {
+            if (data == null) {
+                return null;
+            }
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+                byte[] buffer = new byte[4096];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+
+                // only worth it if we save at least 10%
+                if (out.size() < data.length - data.length / 10) {
+                    return new Entry(out.toByteArray(), data.length);
+                } else {
+                    return new Entry(data, -1);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import com.frostwire.util.HttpClient;
 import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpClientType;
 import com.frostwire.util.URLUtils;
 import com.frostwire.util.UserAgentGenerator;
 
@@ -47,7 +48,8 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         this.keywords = keywords;
         this.encodedKeywords = URLUtils.encode(keywords);
         this.timeout = timeout;
-        this.client = HttpClientFactory.newDefaultInstance();
+        // pooled keep-alive connections, engines are hit many times per search
+        this.client = HttpClientFactory.newInstance(HttpClientType.Apache);
     }
 
     public final String getKeywords() {
@@ -27,6 +27,8 @@ package sun.net.httpserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import javax.net.ssl.*;
 import java.util.*;
 import java.util.logging.Logger;
@@ -406,10 +408,13 @@ class ExchangeImpl {
  * If a caller/user tries to write to this stream before
  * the wrapped stream has been provided, then an IOException will
  * be thrown.
+ * It is also a channel, the writes are passed to the wrapped
+ * stream as buffers when it supports it.
  */
-class PlaceholderOutputStream extends java.io.OutputStream {
+class PlaceholderOutputStream extends java.io.OutputStream implements WritableByteChannel {
 
     OutputStream wrapped;
+    boolean closed;
 
     PlaceholderOutputStream (OutputStream os) {
         wrapped = os;
@@ -449,8 +454,21 @@ class PlaceholderOutputStream extends java.io.OutputStream {
         wrapped.flush();
     }
 
+    public int write(ByteBuffer src) throws IOException {
+        checkWrap();
+        if (wrapped instanceof WritableByteChannel) {
+            return ((WritableByteChannel) wrapped).write (src);
+        }
+        return BufferedWrites.write (wrapped, src);
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
     public void close() throws IOException {
         checkWrap();
+        closed = true;
         wrapped.close();
     }
 }
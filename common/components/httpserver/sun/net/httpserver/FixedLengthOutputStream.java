@@ -27,6 +27,8 @@ package sun.net.httpserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import com.sun.net.httpserver.*;
 import com.sun.net.httpserver.spi.*;
 
@@ -36,9 +38,11 @@ import com.sun.net.httpserver.spi.*;
  * write the pre-defined number or else an exception will be thrown
  * and the whole request aborted.
  * normal close() does not close the underlying stream
+ * it is also a channel, so the body can be fed with
+ * FileChannel.transferTo without copying it through the heap
  */
 
-class FixedLengthOutputStream extends FilterOutputStream
+class FixedLengthOutputStream extends FilterOutputStream implements WritableByteChannel
 {
     private long remaining;
     private boolean eof = false;
@@ -79,6 +83,32 @@ class FixedLengthOutputStream extends FilterOutputStream
         remaining -= len;
     }
 
+    public int write (ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new IOException ("stream closed");
+        }
+        eof = (remaining == 0);
+        if (eof) {
+            throw new StreamClosedException();
+        }
+        if (src.remaining() > remaining) {
+            // stream is still open, caller can retry
+            throw new IOException ("too many bytes to write to stream");
+        }
+        int n;
+        if (out instanceof WritableByteChannel) {
+            n = ((WritableByteChannel) out).write (src);
+        } else {
+            n = BufferedWrites.write (out, src);
+        }
+        remaining -= n;
+        return n;
+    }
+
+    public boolean isOpen () {
+        return !closed;
+    }
+
     public void close () throws IOException {
         if (closed) {
             return;
@@ -351,7 +351,7 @@ class Request {
         }
     }
 
-    static class WriteStream extends java.io.OutputStream {
+    static class WriteStream extends java.io.OutputStream implements WritableByteChannel {
         SocketChannel channel;
         ByteBuffer buf;
         SelectionKey key;
@@ -398,6 +398,23 @@ class Request {
             }
         }
 
+        /* lets FileChannel.transferTo write straight to the socket,
+         * without going through the heap buffer above
+         */
+        public synchronized int write (ByteBuffer src) throws IOException {
+            if (closed)
+                throw new IOException ("stream is closed");
+            int n = 0;
+            while (src.hasRemaining()) {
+                n += channel.write (src);
+            }
+            return n;
+        }
+
+        public boolean isOpen () {
+            return !closed;
+        }
+
         public void close () throws IOException {
             if (closed)
                 return;
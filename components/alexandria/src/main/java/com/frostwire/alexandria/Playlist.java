@@ -17,9 +17,13 @@
 
 package com.frostwire.alexandria;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 
 import com.frostwire.alexandria.db.LibraryDatabase;
 import com.frostwire.alexandria.db.LibraryDatabaseEntity;
@@ -34,6 +38,12 @@ import com.frostwire.alexandria.db.PlaylistItemDB;
  */
 public class Playlist extends LibraryDatabaseEntity {
 
+    /**
+     * Spacing of the sort indexes, so an item can be inserted or moved
+     * between two others changing only its own index.
+     */
+    public static final int SORT_INDEX_GAP = 1024;
+
     private int _id;
     private String _name;
     private String _description;
@@ -107,11 +117,123 @@ public class Playlist extends LibraryDatabaseEntity {
         }
     }
 
-    public synchronized void refresh() {
+    /**
+     * Reads the items from the database without holding any lock, then
+     * swaps them in at once. The items already kept are updated in place,
+     * so the ones shown elsewhere stay the playlist's own.
+     */
+    public void refresh() {
         if (db != null) {
-            _items.clear();
-            _items.addAll(PlaylistItemDB.getPlaylistItems(db, this));
+            List<PlaylistItem> items = PlaylistItemDB.getPlaylistItems(db, this);
+
+            synchronized (_items) {
+                Map<Integer, PlaylistItem> kept = index(_items);
+                for (ListIterator<PlaylistItem> it = items.listIterator(); it.hasNext();) {
+                    PlaylistItem item = it.next();
+                    PlaylistItem k = kept.get(item.getId());
+                    if (k != null) {
+                        k.copyFrom(item);
+                        it.set(k);
+                    }
+                }
+
+                _items.clear();
+                _items.addAll(items);
+            }
+        }
+    }
+
+    /**
+     * Reads from the database the items after the given one, at most limit
+     * of them, without loading the items of the playlist. The items the
+     * playlist already keeps are returned instead of the ones read.
+     *
+     * @param after the last item of the previous page, null for the first page
+     */
+    public List<PlaylistItem> getItemsPage(PlaylistItem after, int limit) {
+        if (db == null) {
+            return Collections.emptyList();
         }
+
+        List<PlaylistItem> page = PlaylistItemDB.getPlaylistItems(db, this, after, limit);
+
+        synchronized (_items) {
+            Map<Integer, PlaylistItem> kept = index(_items);
+            for (ListIterator<PlaylistItem> it = page.listIterator(); it.hasNext();) {
+                PlaylistItem k = kept.get(it.next().getId());
+                if (k != null) {
+                    it.set(k);
+                }
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Gives the items in [from, to) of the list, already in their positions,
+     * sort indexes between the ones of their neighbours. When there is no
+     * room between the neighbours all the items are numbered again.
+     *
+     * @return the items with a new sort index
+     */
+    public List<PlaylistItem> assignSortIndexes(int from, int to) {
+        synchronized (_items) {
+            int size = _items.size();
+            int count = to - from;
+
+            long prev = from > 0 ? _items.get(from - 1).getSortIndex() : 0;
+            long next = to < size ? _items.get(to).getSortIndex() : prev + (long) (count + 1) * SORT_INDEX_GAP;
+
+            if (next - prev <= count || next > Integer.MAX_VALUE) {
+                return renumberSortIndexes();
+            }
+
+            long step = (next - prev) / (count + 1);
+
+            List<PlaylistItem> changed = new ArrayList<PlaylistItem>(count);
+            ListIterator<PlaylistItem> it = _items.listIterator(from);
+            for (int i = 1; i <= count; i++) {
+                PlaylistItem item = it.next();
+                item.setSortIndex((int) (prev + step * i));
+                changed.add(item);
+            }
+
+            return changed;
+        }
+    }
+
+    /**
+     * Saves the sort indexes of the items in one batch.
+     */
+    public void saveSortIndexes(List<PlaylistItem> items) {
+        if (db != null && !items.isEmpty()) {
+            PlaylistItemDB.saveSortIndexes(db, items);
+        }
+    }
+
+    private static Map<Integer, PlaylistItem> index(List<PlaylistItem> items) {
+        Map<Integer, PlaylistItem> index = new HashMap<Integer, PlaylistItem>(items.size() * 2);
+        for (PlaylistItem item : items) {
+            index.put(item.getId(), item);
+        }
+        return index;
+    }
+
+    private List<PlaylistItem> renumberSortIndexes() {
+        int gap = (int) Math.max(1, Math.min(SORT_INDEX_GAP, Integer.MAX_VALUE / (_items.size() + 1L)));
+
+        List<PlaylistItem> changed = new ArrayList<PlaylistItem>(_items.size());
+        int sortIndex = 0;
+        for (PlaylistItem item : _items) {
+            sortIndex += gap;
+            if (item.getSortIndex() != sortIndex) {
+                item.setSortIndex(sortIndex);
+                changed.add(item);
+            }
+        }
+
+        return changed;
     }
 
     public PlaylistItem newItem(String filePath, String fileName, long fileSize, String fileExtension, String trackTitle, float trackDurationInSecs, String trackArtist, String trackAlbum, String coverArtPath, String trackBitrate, String trackComment, String trackGenre, String trackNumber,
@@ -203,6 +203,28 @@ public class PlaylistItem extends LibraryDatabaseEntity {
         }
     }
 
+    /**
+     * Takes the values of the item read again from the database.
+     */
+    void copyFrom(PlaylistItem item) {
+        filePath = item.filePath;
+        fileName = item.fileName;
+        fileSize = item.fileSize;
+        fileExtension = item.fileExtension;
+        trackTitle = item.trackTitle;
+        trackDurationInSecs = item.trackDurationInSecs;
+        trackArtist = item.trackArtist;
+        trackAlbum = item.trackAlbum;
+        coverArtPath = item.coverArtPath;
+        trackBitrate = item.trackBitrate;
+        trackComment = item.trackComment;
+        trackGenre = item.trackGenre;
+        trackNumber = item.trackNumber;
+        trackYear = item.trackYear;
+        starred = item.starred;
+        sortIndex = item.sortIndex;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return this.id == ((PlaylistItem) obj).id;
@@ -9,12 +9,29 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 
+/**
+ * The library database. The writes go through one connection, one at a
+ * time. The queries use a small pool of read connections, so the library
+ * UI can read while a write runs in the background (the database is
+ * opened in MVCC mode, the reads see the last committed data). Every
+ * connection keeps its prepared statements, keyed by the SQL text.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
 public class LibraryDatabase {
 
     public static final int OBJECT_NOT_SAVED_ID = -1;
@@ -22,14 +39,33 @@ public class LibraryDatabase {
     public static final int STARRED_PLAYLIST_ID = -3;
 
     public static final int LIBRARY_VERSION_PLAYLIST_SORT_INDEXES = 4; // indicates db version when playlist sort indexes were added
-    public static final int LIBRARY_DATABASE_VERSION = 4;
-    
+    public static final int LIBRARY_VERSION_PLAYLIST_ITEMS_SORT_INDEX = 5; // indicates db version when the index of the items by playlist and sort index was added
+    public static final int LIBRARY_DATABASE_VERSION = 5;
+
+    private static final int READ_POOL_SIZE = 3;
+
+    private static final int STATEMENT_CACHE_SIZE = 50;
+
+    /**
+     * Rows fetched at a time by the streamed queries.
+     */
+    private static final int STREAM_FETCH_SIZE = 256;
+
+    /**
+     * Time to wait for a read connection before reading with the write one.
+     */
+    private static final long READ_POOL_TIMEOUT_MILLIS = 2000;
+
     private final File _databaseFile;
     private final String _name;
     
     private Connection _connection;
+    private final StatementCache _statements;
+
+    private final BlockingQueue<PooledConnection> _idleReaders;
+    private int _openReaders;
 
-    private boolean _closed;
+    private volatile boolean _closed;
 
     static {
         try {
@@ -45,6 +81,11 @@ public class LibraryDatabase {
         File path = databaseFile;
         _name = databaseFile.getName();
 
+        // before opening, the upgrade of the database uses them
+        _statements = new StatementCache();
+        _idleReaders = new LinkedBlockingQueue<PooledConnection>();
+        _openReaders = 0;
+
         _connection = openOrCreateDatabase(path, _name);
     }
 
@@ -60,12 +101,61 @@ public class LibraryDatabase {
         return _closed;
     }
 
-    public synchronized List<List<Object>> query(String statementSql, Object... arguments) {
+    /**
+     * Runs the query with a connection of the read pool, it doesn't wait for
+     * the writes in progress.
+     */
+    public List<List<Object>> query(String statementSql, Object... arguments) {
         if (isClosed()) {
             return new ArrayList<List<Object>>();
         }
 
-        return query(_connection, statementSql, arguments);
+        PooledConnection reader = acquireReader();
+
+        if (reader == null) {
+            synchronized (this) {
+                if (isClosed()) {
+                    return new ArrayList<List<Object>>();
+                }
+                return query(_connection, _statements, statementSql, arguments);
+            }
+        }
+
+        try {
+            return query(reader.connection, reader.statements, statementSql, arguments);
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    /**
+     * Runs the query with a connection of the read pool and passes the rows
+     * to the handler as they are read, without keeping them. The row passed
+     * is reused, it's valid only during the call.
+     *
+     * @return the number of rows handled
+     */
+    public int stream(RowHandler handler, String statementSql, Object... arguments) {
+        if (isClosed()) {
+            return 0;
+        }
+
+        PooledConnection reader = acquireReader();
+
+        if (reader == null) {
+            synchronized (this) {
+                if (isClosed()) {
+                    return 0;
+                }
+                return stream(_connection, _statements, handler, statementSql, arguments);
+            }
+        }
+
+        try {
+            return stream(reader.connection, reader.statements, handler, statementSql, arguments);
+        } finally {
+            releaseReader(reader);
+        }
     }
 
     /**
@@ -79,7 +169,7 @@ public class LibraryDatabase {
             return -1;
         }
 
-        return update(_connection, statementSql, arguments);
+        return update(_connection, _statements, statementSql, arguments);
     }
 
     /**
@@ -104,6 +194,64 @@ public class LibraryDatabase {
         return OBJECT_INVALID_ID;
     }
 
+    /**
+     * Executes the statement once per arguments array, as a JDBC batch of
+     * a single prepared statement in a single transaction. Nothing is
+     * written if any of them fails.
+     *
+     * @return the number of rows updated, -1 if the batch failed
+     */
+    public synchronized int updateBatch(String statementSql, List<Object[]> argumentsList) {
+        if (isClosed()) {
+            return -1;
+        }
+
+        if (argumentsList.isEmpty()) {
+            return 0;
+        }
+
+        PreparedStatement statement;
+        boolean autoCommit = true;
+
+        try {
+            autoCommit = _connection.getAutoCommit();
+            _connection.setAutoCommit(false);
+
+            statement = _statements.prepare(_connection, statementSql);
+            statement.clearBatch();
+
+            for (Object[] arguments : argumentsList) {
+                for (int i = 0; i < arguments.length; i++) {
+                    statement.setObject(i + 1, arguments[i]);
+                }
+                statement.addBatch();
+            }
+
+            int[] counts = statement.executeBatch();
+            _connection.commit();
+
+            int n = 0;
+            for (int count : counts) {
+                n += Math.max(count, 0);
+            }
+            return n;
+        } catch (Exception e) {
+            e.printStackTrace();
+            _statements.discard(statementSql);
+            try {
+                _connection.rollback();
+            } catch (SQLException e1) {
+            }
+        } finally {
+            try {
+                _connection.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+            }
+        }
+
+        return -1;
+    }
+
     public synchronized void close() {
         if (isClosed()) {
             return;
@@ -111,6 +259,15 @@ public class LibraryDatabase {
 
         _closed = true;
 
+        synchronized (_idleReaders) {
+            PooledConnection reader;
+            while ((reader = _idleReaders.poll()) != null) {
+                reader.close();
+            }
+        }
+
+        _statements.clear();
+
         try {
             Statement statement = _connection.createStatement();
             statement.execute("SHUTDOWN");
@@ -143,10 +300,14 @@ public class LibraryDatabase {
             setupLuceneIndex(connection);
         }
         
-        if (newVersion == 4) {
+        if (oldVersion < LIBRARY_VERSION_PLAYLIST_SORT_INDEXES && newVersion >= LIBRARY_VERSION_PLAYLIST_SORT_INDEXES) {
             setupPlaylistIndexes(connection);
         }
 
+        if (oldVersion < LIBRARY_VERSION_PLAYLIST_ITEMS_SORT_INDEX && newVersion >= LIBRARY_VERSION_PLAYLIST_ITEMS_SORT_INDEX) {
+            setupPlaylistItemsSortIndex(connection);
+        }
+
         update(connection, "UPDATE Library SET version = ?", LIBRARY_DATABASE_VERSION);
     }
 
@@ -156,6 +317,9 @@ public class LibraryDatabase {
             sb.append("jdbc:h2:");
             sb.append(new File(path, name).getAbsolutePath());
 
+            // the readers don't wait for the writer
+            sb.append(";MVCC=TRUE");
+
             if (!createIfNotExists) {
                 sb.append(";ifexists=true");
             }
@@ -182,6 +346,7 @@ public class LibraryDatabase {
                 "CREATE TABLE PlaylistItems (playlistItemId INTEGER IDENTITY, filePath VARCHAR(10000), fileName VARCHAR(500), fileSize BIGINT, fileExtension VARCHAR(10), trackTitle VARCHAR(500), trackDurationInSecs REAL, trackArtist VARCHAR(500), trackAlbum VARCHAR(500), coverArtPath VARCHAR(10000), trackBitrate VARCHAR(10), trackComment VARCHAR(500), trackGenre VARCHAR(20), trackNumber VARCHAR(6), trackYear VARCHAR(6), playlistId INTEGER, starred BOOLEAN, sortIndex INTEGER)");
         update(connection, "CREATE INDEX idx_PlaylistItems_filePath ON PlaylistItems (filePath)");
         update(connection, "CREATE INDEX idx_PlaylistItems_starred ON PlaylistItems (starred)");
+        update(connection, "CREATE INDEX idx_PlaylistItems_playlistId_sortIndex ON PlaylistItems (playlistId, sortIndex)");
 
         setupInternetRadioStationsTable(connection);
 
@@ -198,6 +363,7 @@ public class LibraryDatabase {
         if (connection == null) {
             connection = createDatabase(path, name);
         } else {
+            _connection = connection;
             int version = getDatabaseVersion(connection);
             if (version < LIBRARY_DATABASE_VERSION) {
                 onUpdateDatabase(connection, version, LIBRARY_DATABASE_VERSION);
@@ -229,28 +395,140 @@ public class LibraryDatabase {
             return OBJECT_INVALID_ID;
         }
 
-        Statement statement = null;
-        ResultSet resultSet = null;
+        List<List<Object>> result = query(_connection, _statements, "CALL IDENTITY()");
 
-        try {
-            statement = _connection.createStatement();
-            resultSet = statement.executeQuery("CALL IDENTITY()");
+        if (result.size() > 0) {
+            return ((Number) result.get(0).get(0)).intValue();
+        }
 
-            resultSet.next();
+        return OBJECT_INVALID_ID;
+    }
 
-            return resultSet.getInt(1);
+    private List<List<Object>> query(Connection connection, StatementCache statements, String statementSql, Object... arguments) {
+        try {
+            PreparedStatement statement = statements.prepare(connection, statementSql);
+            setArguments(statement, arguments);
+
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                return convertResultSetToList(resultSet);
+            } finally {
+                resultSet.close();
+            }
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e) {
+            statements.discard(statementSql);
+        }
+
+        return new ArrayList<List<Object>>();
+    }
+
+    private int stream(Connection connection, StatementCache statements, RowHandler handler, String statementSql, Object... arguments) {
+        int n = 0;
+
+        try {
+            PreparedStatement statement = statements.prepare(connection, statementSql);
+            setArguments(statement, arguments);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                Object[] values = new Object[resultSet.getMetaData().getColumnCount()];
+                List<Object> row = Arrays.asList(values);
+
+                while (resultSet.next()) {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = resultSet.getObject(i + 1);
+                    }
+                    n++;
+                    if (!handler.handle(row)) {
+                        break;
+                    }
                 }
+            } finally {
+                resultSet.close();
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+            statements.discard(statementSql);
         }
 
-        return OBJECT_INVALID_ID;
+        return n;
+    }
+
+    private int update(Connection connection, StatementCache statements, String statementSql, Object... arguments) {
+        try {
+            PreparedStatement statement = statements.prepare(connection, statementSql);
+            setArguments(statement, arguments);
+
+            return statement.executeUpdate();
+        } catch (Exception e) {
+            e.printStackTrace();
+            statements.discard(statementSql);
+        }
+
+        return -1;
+    }
+
+    private static void setArguments(PreparedStatement statement, Object... arguments) throws SQLException {
+        statement.clearParameters();
+
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                statement.setObject(i + 1, arguments[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns an idle read connection, opens one if the pool is not full,
+     * otherwise waits for one. Returns null if none is available, then the
+     * caller reads with the write connection.
+     */
+    private PooledConnection acquireReader() {
+        PooledConnection reader = _idleReaders.poll();
+        if (reader != null) {
+            return reader;
+        }
+
+        boolean open = false;
+        synchronized (_idleReaders) {
+            if (isClosed()) {
+                return null; // opening one would open the database again
+            }
+            if (_openReaders < READ_POOL_SIZE) {
+                _openReaders++;
+                open = true;
+            }
+        }
+
+        if (open) {
+            Connection connection = openConnection(_databaseFile, _name, false);
+            if (connection != null) {
+                return new PooledConnection(connection);
+            }
+            synchronized (_idleReaders) {
+                _openReaders--;
+            }
+            return null;
+        }
+
+        try {
+            return _idleReaders.poll(READ_POOL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void releaseReader(PooledConnection reader) {
+        synchronized (_idleReaders) {
+            if (isClosed()) {
+                reader.close();
+            } else {
+                _idleReaders.offer(reader);
+            }
+        }
     }
 
     private List<List<Object>> query(Connection connection, String statementSql, Object... arguments) {
@@ -353,4 +631,96 @@ public class LibraryDatabase {
             }
         }
     }
+
+    private void setupPlaylistItemsSortIndex(final Connection connection) {
+        // the pages of the playlists are read by sort index
+        update(connection, "UPDATE PlaylistItems SET sortIndex = 0 WHERE sortIndex IS NULL");
+        update(connection, "CREATE INDEX idx_PlaylistItems_playlistId_sortIndex ON PlaylistItems (playlistId, sortIndex)");
+    }
+
+    public interface RowHandler {
+
+        /**
+         * Handles a row of a streamed query.
+         *
+         * @return false to stop reading rows
+         */
+        public boolean handle(List<Object> row);
+    }
+
+    /**
+     * The prepared statements of a connection by SQL text, the least
+     * recently used one is closed when full. Only used by the thread that
+     * holds the connection.
+     */
+    private static final class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+        private static final long serialVersionUID = -2874195372153085121L;
+
+        public StatementCache() {
+            super(STATEMENT_CACHE_SIZE, 0.75f, true);
+        }
+
+        public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+            PreparedStatement statement = get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Closes the statement of a failed execution, it's prepared again
+         * the next time.
+         */
+        public void discard(String sql) {
+            close(remove(sql));
+        }
+
+        @Override
+        public void clear() {
+            for (PreparedStatement statement : values()) {
+                close(statement);
+            }
+            super.clear();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                close(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+
+        private static void close(PreparedStatement statement) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    private static final class PooledConnection {
+
+        public final Connection connection;
+        public final StatementCache statements;
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new StatementCache();
+        }
+
+        public void close() {
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
 }
@@ -8,6 +8,9 @@ import com.frostwire.alexandria.PlaylistItem;
 
 public class PlaylistItemDB {
 
+    private static final String SELECT_PLAYLIST_ITEMS = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex "
+            + "FROM PlaylistItems ";
+
     private PlaylistItemDB() {} // don't construct this direclty
 
     public static void fill(LibraryDatabase db, PlaylistItem obj) {
@@ -83,11 +86,55 @@ public class PlaylistItemDB {
         db.update("DELETE FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
     }
     
-    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist) {
-        String query = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex "
-                + "FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC";
+    /**
+     * Saves only the sort indexes of the items, in one batch.
+     */
+    public static void saveSortIndexes(LibraryDatabase db, List<PlaylistItem> items) {
+        List<Object[]> arguments = new ArrayList<Object[]>(items.size());
+        for (PlaylistItem item : items) {
+            if (item.getId() >= 0) {
+                arguments.add(new Object[] { item.getSortIndex(), item.getId() });
+            }
+        }
+
+        db.updateBatch("UPDATE PlaylistItems SET sortIndex = ? WHERE playlistItemId = ?", arguments);
+    }
+
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, final Playlist playlist) {
+        String query = SELECT_PLAYLIST_ITEMS + "WHERE playlistId = ? ORDER BY sortIndex ASC, playlistItemId ASC";
+
+        final List<PlaylistItem> items = new ArrayList<PlaylistItem>();
+
+        // straight from the result set, without a copy of all the rows
+        db.stream(new LibraryDatabase.RowHandler() {
+            public boolean handle(List<Object> row) {
+                PlaylistItem item = new PlaylistItem(playlist);
+                PlaylistItemDB.fill(row, item);
+                items.add(item);
+                return true;
+            }
+        }, query, playlist.getId());
 
-        List<List<Object>> result = db.query(query, playlist.getId());
+        return items;
+    }
+
+    /**
+     * Returns the items of the playlist that follow the given one in the
+     * sort order, at most limit of them. The page is looked up by sort index
+     * in the index, not skipping the rows before it.
+     *
+     * @param after the last item of the previous page, null for the first page
+     */
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist, PlaylistItem after, int limit) {
+        List<List<Object>> result;
+
+        if (after == null) {
+            String query = SELECT_PLAYLIST_ITEMS + "WHERE playlistId = ? ORDER BY sortIndex ASC, playlistItemId ASC LIMIT ?";
+            result = db.query(query, playlist.getId(), limit);
+        } else {
+            String query = SELECT_PLAYLIST_ITEMS + "WHERE playlistId = ? AND (sortIndex > ? OR (sortIndex = ? AND playlistItemId > ?)) ORDER BY sortIndex ASC, playlistItemId ASC LIMIT ?";
+            result = db.query(query, playlist.getId(), after.getSortIndex(), after.getSortIndex(), after.getId(), limit);
+        }
 
         List<PlaylistItem> items = new ArrayList<PlaylistItem>(result.size());
 
@@ -99,7 +146,7 @@ public class PlaylistItemDB {
 
         return items;
     }
-    
+
     private static Object[] createPlaylistItemInsert(PlaylistItem item) {
         String sql = "INSERT INTO PlaylistItems (playlistId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex) "
                 + " VALUES (?, LEFT(?, 10000), LEFT(?, 500), ?, LEFT(?, 10), LEFT(?, 500), ?, LEFT(?, 500), LEFT(?, 500), LEFT(?, 10000), LEFT(?, 10), LEFT(?, 500), LEFT(?, 20), LEFT(?, 6), LEFT(?, 6), ?, ?)";
@@ -25,21 +25,58 @@ package org.gudy.azureus2.core3.torrent.impl;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.gudy.azureus2.core3.torrent.*;
 import org.gudy.azureus2.core3.util.*;
 
+/**
+ * Hashes the pieces of the files of a torrent being created.
+ * <p>
+ * The thread calling {@link #add(File)} only reads: it fills pooled direct
+ * piece buffers straight from the file channel and hands each full piece to a
+ * pool of hashing threads, one per core. Digests are kept by piece index so
+ * the order doesn't depend on which worker finishes first. The buffer pool is
+ * bounded by count and by {@link #MAX_BUFFERS_MEMORY}, so the reader waits for
+ * the workers when it gets too far ahead and large pieces don't take one
+ * direct buffer per core.
+ */
+
 public class 
 TOTorrentFileHasher 
 {
+	private static final int	NUM_HASHERS	= Math.max( 1, Runtime.getRuntime().availableProcessors());
+	
+		// memory of the piece buffers in flight, at least two buffers are used
+	
+	private static final long	MAX_BUFFERS_MEMORY	= 64*1024*1024;
+	
+	private static final ThreadLocal<SHA1Hasher>	piece_hasher = 
+		new ThreadLocal<SHA1Hasher>()
+		{
+			protected SHA1Hasher
+			initialValue()
+			{
+				return( new SHA1Hasher());
+			}
+		};
+	
 	protected boolean	do_other_per_file_hash;
 	protected int		piece_length;
 	
-	protected Vector	pieces = new Vector();
+	protected List<Future<byte[]>>	pieces = new ArrayList<Future<byte[]>>();
+	
+	protected ByteBuffer	buffer;
+	protected byte[]		scratch;
 	
-	protected byte[]	buffer;
-	protected int		buffer_pos;
+	protected BlockingQueue<ByteBuffer>	free_buffers;
+	protected int						max_buffers;
+	protected int						buffers_allocated;
+	protected ExecutorService			hashers;
+	protected int						pieces_hashed;
 	 
 	protected SHA1Hasher					overall_sha1_hash;
 	protected ED2KHasher					overall_ed2k_hash;
@@ -52,7 +89,7 @@ TOTorrentFileHasher
 	
 	protected TOTorrentFileHasherListener	listener;
 		
-	protected boolean						cancelled;
+	protected volatile boolean				cancelled;
 	
 	protected
 	TOTorrentFileHasher(
@@ -71,7 +108,30 @@ TOTorrentFileHasher
 		piece_length			= _piece_length;
 		listener				= _listener;
 		
-		buffer = new byte[piece_length];
+			// one buffer being filled, one being hashed by each worker and one waiting per worker,
+			// fewer if the pieces are large. the buffers are allocated when first needed
+		
+		max_buffers = (int)Math.max( 2, Math.min( NUM_HASHERS * 2 + 1, MAX_BUFFERS_MEMORY / piece_length ));
+		
+		free_buffers = new ArrayBlockingQueue<ByteBuffer>( max_buffers );
+		
+		hashers = 
+			Executors.newFixedThreadPool( 
+				Math.min( NUM_HASHERS, max_buffers - 1 ),
+				new ThreadFactory()
+				{
+					public Thread
+					newThread(
+						Runnable	r )
+					{
+						Thread t = new Thread( r, "TOTorrentFileHasher" );
+						
+						t.setDaemon( true );
+						t.setPriority( Thread.MIN_PRIORITY );
+						
+						return( t );
+					}
+				});
 	}
 		
 	long
@@ -82,7 +142,7 @@ TOTorrentFileHasher
 	{
 		long		file_length = 0;
 		
-		InputStream is = null;
+		FileInputStream is = null;
 		
 		SHA1Hasher	sha1_hash		= null;
 		ED2KHasher	ed2k_hash		= null;
@@ -94,7 +154,9 @@ TOTorrentFileHasher
 				ed2k_hash		= new ED2KHasher();
 			}
 			
-			is = new BufferedInputStream(new FileInputStream( _file ), 65536);
+			is = new FileInputStream( _file );
+			
+			FileChannel	channel = is.getChannel();
 
 			while(true){
 	
@@ -104,43 +166,34 @@ TOTorrentFileHasher
 													TOTorrentException.RT_CANCELLED ));
 				}
 				
-				int	len = is.read( buffer, buffer_pos, piece_length - buffer_pos );
+				if ( buffer == null ){
+					
+					buffer = takeBuffer();
+				}
+				
+				int	buffer_pos = buffer.position();
+				
+				int	len = channel.read( buffer );
 				
 				if ( len > 0 ){
 					
 					if ( do_other_per_file_hash ){
 						
-						sha1_hash.update( buffer, buffer_pos, len );
-						ed2k_hash.update( buffer, buffer_pos, len );
+						byte[]	data = copy( buffer, buffer_pos, len );
+						
+						sha1_hash.update( data, 0, len );
+						ed2k_hash.update( data, 0, len );
 					}
 					
-					
 					file_length += len;
-					
-					buffer_pos += len;
-					
-					if ( buffer_pos == piece_length ){
+										
+					if ( !buffer.hasRemaining()){
 						
-						// hash this piece
+							// hash this piece
 						
-						byte[] hash = new SHA1Hasher().calculateHash(buffer);
-
-						if ( overall_sha1_hash != null ){
-							
-							overall_sha1_hash.update( buffer );
-							overall_ed2k_hash.update( buffer );
-						}
-						
-						pieces.add( hash );
-						
-						if ( listener != null ){
-							
-							listener.pieceHashed( pieces.size() );
-						}
-						
-						buffer_pos = 0;					
+						submitPiece();
 					}
-				}else{
+				}else if ( len < 0 ){
 					
 					break;
 				}		
@@ -154,10 +207,14 @@ TOTorrentFileHasher
 			
 		}catch( TOTorrentException e ){
 			
+			destroy();
+			
 			throw( e );
 			
 		}catch( Throwable e ){
 			
+			destroy();
+			
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}finally {
@@ -173,6 +230,137 @@ TOTorrentFileHasher
 		return( file_length );
 	}
 	
+	private ByteBuffer
+	takeBuffer()
+	
+		throws InterruptedException, TOTorrentException
+	{
+		ByteBuffer	b = free_buffers.poll();
+		
+		if ( b == null && buffers_allocated < max_buffers ){
+			
+			buffers_allocated++;
+			
+			return( ByteBuffer.allocateDirect( piece_length ));
+		}
+		
+		while( true ){
+			
+			if ( b == null ){
+				
+				b = free_buffers.poll( 250, TimeUnit.MILLISECONDS );
+			}
+			
+			if ( b != null ){
+				
+				b.clear();
+				
+				return( b );
+			}
+			
+			if ( cancelled ){
+				
+				throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
+												TOTorrentException.RT_CANCELLED ));
+			}
+		}
+	}
+	
+	private void
+	submitPiece()
+	{
+		final ByteBuffer	piece = buffer;
+		
+		buffer = null;
+		
+		piece.flip();
+		
+		if ( overall_sha1_hash != null ){
+			
+				// these are sequential by nature, so they stay in the reader
+			
+			int		len		= piece.remaining();
+			byte[]	data	= copy( piece, 0, len );
+			
+			overall_sha1_hash.update( data, 0, len );
+			overall_ed2k_hash.update( data, 0, len );
+		}
+		
+		pieces.add( 
+			hashers.submit(
+				new Callable<byte[]>()
+				{
+					public byte[]
+					call()
+					{
+						try{
+							if ( cancelled ){
+								
+								return( null );
+							}
+							
+							byte[] hash = piece_hasher.get().calculateHash( piece );
+							
+							pieceHashed();
+							
+							return( hash );
+							
+						}finally{
+							
+							free_buffers.offer( piece );
+						}
+					}
+				}));
+	}
+	
+		/**
+		 * copies bytes of a piece buffer to the heap, only needed by the optional
+		 * (and sequential) overall and per file hashes.
+		 */
+	
+	private byte[]
+	copy(
+		ByteBuffer	b,
+		int			pos,
+		int			len )
+	{
+		if ( scratch == null ){
+			
+			scratch = new byte[piece_length];
+		}
+		
+		ByteBuffer	dup = b.duplicate();
+		
+		dup.position( pos );
+		dup.get( scratch, 0, len );
+		
+		return( scratch );
+	}
+	
+	private void
+	pieceHashed()
+	{
+		if ( listener != null ){
+			
+			synchronized( this ){
+				
+				pieces_hashed++;
+				
+				listener.pieceHashed( pieces_hashed );
+			}
+		}
+	}
+	
+	private void
+	destroy()
+	{
+		hashers.shutdownNow();
+		
+		free_buffers.clear();
+		
+		buffer = null;
+	}
+	
 	protected byte[]
 	getPerFileSHA1Digest()
 	{
@@ -191,42 +379,44 @@ TOTorrentFileHasher
 		throws TOTorrentException
 	{
 		try{
-			if ( buffer_pos > 0 ){
+			if ( buffer != null && buffer.position() > 0 ){
 								
-				byte[] rem = new byte[buffer_pos];
-				
-				System.arraycopy( buffer, 0, rem, 0, buffer_pos );
-				
-				pieces.addElement(new SHA1Hasher().calculateHash(rem));
+				submitPiece();
+			}
+		
+			byte[][] res = new byte[pieces.size()][];
+		
+			for (int i=0;i<res.length;i++){
 				
-				if ( overall_sha1_hash != null ){
+				if ( cancelled ){
 					
-					overall_sha1_hash.update( rem );
-					overall_ed2k_hash.update( rem );
-				}
-				
-				if ( listener != null ){
-							
-					listener.pieceHashed( pieces.size() );
+					throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
+													TOTorrentException.RT_CANCELLED ));
 				}
 				
-				buffer_pos = 0;
+				res[i] = pieces.get( i ).get();
 			}
-		
+			
 			if ( overall_sha1_hash != null && sha1_digest == null ){
 				
 				sha1_digest	= overall_sha1_hash.getDigest();
 				ed2k_digest	= overall_ed2k_hash.getDigest();
 			}
 			
-			byte[][] res = new byte[pieces.size()][];
-		
-			pieces.copyInto( res );
-		
+			hashers.shutdown();
+			
 			return( res );
 			
+		}catch( TOTorrentException e ){
+			
+			destroy();
+			
+			throw( e );
+			
 		}catch( Throwable e ){
 			
+			destroy();
+			
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}
@@ -0,0 +1,342 @@
+package org.limewire.collection;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A <code>List</code> backed by a balanced tree (a treap) where every element
+ * knows its position.
+ * <p>
+ * Like {@link TreeList}, <code>get</code>, <code>add</code> and
+ * <code>remove</code> at any index are O(log n). In addition,
+ * <code>indexOf</code> and <code>contains</code> are O(log n) too, and the
+ * insertion point of an element in a sorted list is found in O(log n)
+ * without going through <code>get</code>.
+ * <p>
+ * Elements are compared by identity, not with <code>equals</code>, and the
+ * same instance can't be in the list twice. <code>null</code> is not allowed.
+ */
+public class IndexedTreeList<E> extends AbstractList<E> {
+
+    private final Map<E, Node<E>> nodes;
+    private final Random random;
+
+    private Node<E> root;
+
+    public IndexedTreeList() {
+        nodes = new IdentityHashMap<E, Node<E>>();
+        random = new Random();
+    }
+
+    public IndexedTreeList(Collection<? extends E> coll) {
+        this();
+        addAll(coll);
+    }
+
+    @Override
+    public E get(int index) {
+        return node(index).value;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns the position of the instance, or -1 if it's not in the list.
+     */
+    @Override
+    public int indexOf(Object o) {
+        Node<E> node = nodes.get(o);
+        return node != null ? index(node) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    @Override
+    public void add(int index, E obj) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<E> node = newNode(obj);
+        modCount++;
+
+        if (root == null) {
+            root = node;
+            return;
+        }
+
+        // find the leaf slot for the index
+        Node<E> parent = root;
+        while (true) {
+            int leftSize = size(parent.left);
+            if (index <= leftSize) {
+                if (parent.left == null) {
+                    parent.left = node;
+                    break;
+                }
+                parent = parent.left;
+            } else {
+                index -= leftSize + 1;
+                if (parent.right == null) {
+                    parent.right = node;
+                    break;
+                }
+                parent = parent.right;
+            }
+        }
+        node.parent = parent;
+
+        for (Node<E> n = parent; n != null; n = n.parent) {
+            n.size++;
+        }
+
+        while (node.parent != null && node.priority > node.parent.priority) {
+            if (node == node.parent.left) {
+                rotateRight(node.parent);
+            } else {
+                rotateLeft(node.parent);
+            }
+        }
+    }
+
+    @Override
+    public E set(int index, E obj) {
+        Node<E> node = node(index);
+        if (node.value == obj) {
+            return obj;
+        }
+        if (obj == null) {
+            throw new NullPointerException("null element");
+        }
+        if (nodes.containsKey(obj)) {
+            throw new IllegalArgumentException("element already in the list");
+        }
+        E old = node.value;
+        nodes.remove(old);
+        node.value = obj;
+        nodes.put(obj, node);
+        return old;
+    }
+
+    @Override
+    public E remove(int index) {
+        Node<E> node = node(index);
+        remove(node);
+        return node.value;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Node<E> node = nodes.get(o);
+        if (node == null) {
+            return false;
+        }
+        remove(node);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        root = null;
+        nodes.clear();
+    }
+
+    /**
+     * Returns the position where <code>obj</code> should be inserted to keep
+     * the list sorted by <code>comparator</code>, after the elements that
+     * compare equal to it. The list must already be sorted.
+     */
+    public int insertionPoint(E obj, Comparator<? super E> comparator) {
+        int index = 0;
+        Node<E> node = root;
+        while (node != null) {
+            if (comparator.compare(obj, node.value) < 0) {
+                node = node.left;
+            } else {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Sorts the list with a single array sort, then rebuilds the tree.
+     */
+    public void sort(Comparator<? super E> comparator) {
+        @SuppressWarnings("unchecked")
+        E[] elements = (E[]) toArray();
+        Arrays.sort(elements, comparator);
+        clear();
+        for (E e : elements) {
+            add(e);
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] array = new Object[size()];
+        fill(root, array, 0);
+        return array;
+    }
+
+    private Node<E> newNode(E obj) {
+        if (obj == null) {
+            throw new NullPointerException("null element");
+        }
+        if (nodes.containsKey(obj)) {
+            throw new IllegalArgumentException("element already in the list");
+        }
+        Node<E> node = new Node<E>(obj, random.nextInt());
+        nodes.put(obj, node);
+        return node;
+    }
+
+    private Node<E> node(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private int index(Node<E> node) {
+        int index = size(node.left);
+        for (Node<E> n = node; n.parent != null; n = n.parent) {
+            if (n == n.parent.right) {
+                index += size(n.parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    private void remove(Node<E> node) {
+        modCount++;
+        nodes.remove(node.value);
+
+        // rotate the node down until it's a leaf, keeping the heap order
+        while (node.left != null || node.right != null) {
+            if (node.right == null || (node.left != null && node.left.priority > node.right.priority)) {
+                rotateRight(node);
+            } else {
+                rotateLeft(node);
+            }
+        }
+
+        Node<E> parent = node.parent;
+        if (parent == null) {
+            root = null;
+        } else {
+            if (node == parent.left) {
+                parent.left = null;
+            } else {
+                parent.right = null;
+            }
+            for (Node<E> n = parent; n != null; n = n.parent) {
+                n.size--;
+            }
+        }
+        node.parent = null;
+    }
+
+    /**
+     * Moves the left child of node in its place.
+     */
+    private void rotateRight(Node<E> node) {
+        Node<E> pivot = node.left;
+        node.left = pivot.right;
+        if (pivot.right != null) {
+            pivot.right.parent = node;
+        }
+        replace(node, pivot);
+        pivot.right = node;
+        node.parent = pivot;
+        node.size = size(node.left) + size(node.right) + 1;
+        pivot.size = size(pivot.left) + node.size + 1;
+    }
+
+    /**
+     * Moves the right child of node in its place.
+     */
+    private void rotateLeft(Node<E> node) {
+        Node<E> pivot = node.right;
+        node.right = pivot.left;
+        if (pivot.left != null) {
+            pivot.left.parent = node;
+        }
+        replace(node, pivot);
+        pivot.left = node;
+        node.parent = pivot;
+        node.size = size(node.left) + size(node.right) + 1;
+        pivot.size = node.size + size(pivot.right) + 1;
+    }
+
+    /**
+     * Links pivot to the parent of node, in the place of node.
+     */
+    private void replace(Node<E> node, Node<E> pivot) {
+        Node<E> parent = node.parent;
+        pivot.parent = parent;
+        if (parent == null) {
+            root = pivot;
+        } else if (node == parent.left) {
+            parent.left = pivot;
+        } else {
+            parent.right = pivot;
+        }
+    }
+
+    private static int fill(Node<?> node, Object[] array, int index) {
+        while (node != null) {
+            index = fill(node.left, array, index);
+            array[index++] = node.value;
+            node = node.right;
+        }
+        return index;
+    }
+
+    private static int size(Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static final class Node<E> {
+        private final int priority;
+        private E value;
+        private int size;
+        private Node<E> left;
+        private Node<E> right;
+        private Node<E> parent;
+
+        private Node(E value, int priority) {
+            this.value = value;
+            this.priority = priority;
+            this.size = 1;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.limewire.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+/**
+ * Tests IndexedTreeList against an ArrayList doing the same operations.
+ */
+public class IndexedTreeListTest extends BaseTestCase {
+
+    private static final Comparator<Item> COMPARATOR = new Comparator<Item>() {
+        public int compare(Item o1, Item o2) {
+            return o1.value < o2.value ? -1 : (o1.value > o2.value ? 1 : 0);
+        }
+    };
+
+    public IndexedTreeListTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(IndexedTreeListTest.class);
+    }
+
+    public void testAddGetRemove() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        Item a = new Item(1);
+        Item b = new Item(2);
+        Item c = new Item(3);
+
+        list.add(a);
+        list.add(c);
+        list.add(1, b);
+
+        assertEquals(3, list.size());
+        assertSame(a, list.get(0));
+        assertSame(b, list.get(1));
+        assertSame(c, list.get(2));
+        assertEquals(1, list.indexOf(b));
+
+        assertSame(b, list.remove(1));
+        assertEquals(-1, list.indexOf(b));
+        assertFalse(list.contains(b));
+        assertEquals(1, list.indexOf(c));
+
+        assertTrue(list.remove(a));
+        assertFalse(list.remove(a));
+        assertEquals(1, list.size());
+        assertEquals(0, list.indexOf(c));
+
+        list.clear();
+        assertEquals(0, list.size());
+        assertFalse(list.contains(c));
+    }
+
+    public void testIdentity() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        Item a = new Item(1);
+        list.add(a);
+
+        try {
+            list.add(a);
+            fail("same instance added twice");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            list.add(null);
+            fail("null added");
+        } catch (NullPointerException e) {
+        }
+
+        // equal value, other instance
+        assertEquals(-1, list.indexOf(new Item(1)));
+    }
+
+    public void testOutOfBounds() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        list.add(new Item(1));
+
+        try {
+            list.add(2, new Item(2));
+            fail("added out of bounds");
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        try {
+            list.get(1);
+            fail("got out of bounds");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    public void testSet() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        Item a = new Item(1);
+        Item b = new Item(2);
+        list.add(a);
+
+        assertSame(a, list.set(0, b));
+        assertSame(b, list.get(0));
+        assertEquals(-1, list.indexOf(a));
+        assertEquals(0, list.indexOf(b));
+    }
+
+    public void testRandomAgainstArrayList() {
+        Random random = new Random(1234);
+
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        List<Item> expected = new ArrayList<Item>();
+
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(10);
+
+            if (op < 5 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                Item item = new Item(random.nextInt(100));
+                list.add(index, item);
+                expected.add(index, item);
+            } else if (op < 7) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.remove(index), list.remove(index));
+            } else if (op < 8) {
+                Item item = expected.get(random.nextInt(expected.size()));
+                assertTrue(list.remove(item));
+                expected.remove(item);
+            } else {
+                int index = random.nextInt(expected.size());
+                Item item = expected.get(index);
+                assertEquals(index, list.indexOf(item));
+                assertSame(item, list.get(index));
+            }
+
+            assertEquals(expected.size(), list.size());
+        }
+
+        assertEquals(expected, list);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, list.indexOf(expected.get(i)));
+        }
+    }
+
+    public void testSortAndInsertionPoint() {
+        Random random = new Random(5678);
+
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        List<Item> expected = new ArrayList<Item>();
+
+        for (int i = 0; i < 1000; i++) {
+            Item item = new Item(random.nextInt(50));
+            list.add(item);
+            expected.add(item);
+        }
+
+        // both stable, the equal items keep their order
+        list.sort(COMPARATOR);
+        Collections.sort(expected, COMPARATOR);
+        assertEquals(expected, list);
+
+        for (int i = 0; i < 1000; i++) {
+            Item item = new Item(random.nextInt(60) - 5);
+
+            int index = list.insertionPoint(item, COMPARATOR);
+
+            // after the items that compare equal
+            int expectedIndex = 0;
+            while (expectedIndex < expected.size() && COMPARATOR.compare(expected.get(expectedIndex), item) <= 0) {
+                expectedIndex++;
+            }
+            assertEquals(expectedIndex, index);
+
+            list.add(index, item);
+            expected.add(expectedIndex, item);
+        }
+
+        assertEquals(expected, list);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, list.indexOf(expected.get(i)));
+        }
+    }
+
+    private static final class Item {
+
+        public final int value;
+
+        public Item(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+}
@@ -24,17 +24,35 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.OSUtils;
 
 import com.limegroup.gnutella.settings.SharingSettings;
 import com.limegroup.gnutella.util.FrostWireUtils;
 
 /**
+ * Loads images from http, the resources or the disk cache.
+ *
+ * Downloads run on a small pool of threads, and the listeners of a url
+ * being downloaded wait for that download instead of starting another.
+ * The decoded images are kept in memory up to {@link #MAX_MEMORY_BYTES},
+ * the least recently used first out. The disk cache is trimmed to
+ * {@link #MAX_DISK_BYTES} by access time.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -43,6 +61,12 @@ public class ImageCache {
 
     private static final Log LOG = LogFactory.getLog(ImageCache.class);
 
+    private static final int LOADER_THREADS = 4;
+
+    private static final long MAX_MEMORY_BYTES = 16 * 1024 * 1024;
+
+    private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+
     private static ImageCache instance;
 
     public synchronized static ImageCache instance() {
@@ -52,11 +76,35 @@ public class ImageCache {
         return instance;
     }
 
+    private final ExecutorService loader;
+
+    /**
+     * Listeners of the urls being downloaded, by url string (URL.equals
+     * resolves the host).
+     */
+    private final Map<String, List<OnLoadedListener>> inFlight;
+
+    private final LinkedHashMap<String, BufferedImage> memory;
+    private long memoryBytes;
+
+    private final Object diskLock;
+    private long diskBytes;
+
     private ImageCache() {
+        this.loader = ExecutorsHelper.newFixedSizeThreadPool(LOADER_THREADS, "ImageCache-Loader");
+        this.inFlight = new HashMap<String, List<OnLoadedListener>>();
+        this.memory = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+        this.memoryBytes = 0;
+        this.diskLock = new Object();
+        this.diskBytes = -1;
     }
 
     public BufferedImage getImage(URL url, OnLoadedListener listener) {
-        if (isCached(url)) {
+        BufferedImage image = getFromMemory(url);
+        if (image != null) {
+            listener.onLoaded(url, image, true, false);
+            return image;
+        } else if (isCached(url)) {
             return loadFromCache(url, listener);
         } else if (!url.getProtocol().equals("http")) {
             return loadFromResource(url, listener);
@@ -103,6 +151,8 @@ public class ImageCache {
         try {
             File file = getCacheFile(url);
             BufferedImage image = ImageIO.read(file);
+            file.setLastModified(System.currentTimeMillis());
+            putInMemory(url, image);
             listener.onLoaded(url, image, true, false);
             return image;
         } catch (Throwable e) {
@@ -118,7 +168,8 @@ public class ImageCache {
     private BufferedImage loadFromResource(URL url, OnLoadedListener listener) {
         try {
             BufferedImage image = ImageIO.read(url);
-            saveToCache(url, image, 0);
+            saveToCache(url, image);
+            putInMemory(url, image);
             listener.onLoaded(url, image, false, false);
             return image;
         } catch (Throwable e) {
@@ -129,12 +180,23 @@ public class ImageCache {
     }
 
     private void loadFromUrl(final URL url, final OnLoadedListener listener) {
-        // TODO: may be I must use BackgroundExecutorService
-        new Thread(new Runnable() {
+        final String key = url.toString();
+
+        synchronized (inFlight) {
+            List<OnLoadedListener> listeners = inFlight.get(key);
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+            listeners = new ArrayList<OnLoadedListener>(1);
+            listeners.add(listener);
+            inFlight.put(key, listeners);
+        }
+
+        loader.execute(new Runnable() {
             public void run() {
+                BufferedImage image = null;
                 try {
-                    BufferedImage image = null;
-
                     String userAgent = "FrostWire/" + OSUtils.getOS() + "/" + FrostWireUtils.getFrostWireVersion();
                     HttpFetcher fetcher = new HttpFetcher(url.toURI(), userAgent);
                     Object[] result = fetcher.fetch(false);
@@ -144,23 +206,41 @@ public class ImageCache {
                     }
 
                     byte[] data = (byte[]) result[0];
-                    long date = (Long) result[1];
                     if (data != null) {
                         image = ImageIO.read(new ByteArrayInputStream(data));
-                        saveToCache(url, image, date);
-                    }
-                    if (listener != null && image != null) {
-                        listener.onLoaded(url, image, false, false);
+                        if (image != null) {
+                            saveToCache(url, image);
+                            putInMemory(url, image);
+                        }
                     }
                 } catch (Throwable e) {
                     LOG.error("Failed to load image from: " + url, e);
-                    listener.onLoaded(url, null, false, true);
+                }
+
+                List<OnLoadedListener> listeners;
+                synchronized (inFlight) {
+                    listeners = inFlight.remove(key);
+                }
+
+                for (OnLoadedListener l : listeners) {
+                    if (l == null) {
+                        continue;
+                    }
+                    try {
+                        if (image != null) {
+                            l.onLoaded(url, image, false, false);
+                        } else {
+                            l.onLoaded(url, null, false, true);
+                        }
+                    } catch (Throwable e) {
+                        LOG.error("Error notifying image loaded: " + url, e);
+                    }
                 }
             }
-        }).start();
+        });
     }
 
-    private void saveToCache(URL url, BufferedImage image, long date) {
+    private void saveToCache(URL url, BufferedImage image) {
         try {
             File file = getCacheFile(url);
 
@@ -175,15 +255,102 @@ public class ImageCache {
             String formatName = ImageIO.getImageReadersBySuffix(ext).next().getFormatName();
 
             if (!file.getParentFile().exists()) {
-                file.mkdirs();
+                file.getParentFile().mkdirs();
             }
             ImageIO.write(image, formatName, file);
-            file.setLastModified(date);
+
+            trimDisk(file.length());
         } catch (Throwable e) {
             LOG.error("Failed to save image to cache: " + url, e);
         }
     }
 
+    private BufferedImage getFromMemory(URL url) {
+        synchronized (memory) {
+            return memory.get(url.toString());
+        }
+    }
+
+    private void putInMemory(URL url, BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+
+        long bytes = getBytes(image);
+        if (bytes > MAX_MEMORY_BYTES / 4) {
+            return; // not worth evicting everything else
+        }
+
+        synchronized (memory) {
+            BufferedImage old = memory.put(url.toString(), image);
+            if (old != null) {
+                memoryBytes -= getBytes(old);
+            }
+            memoryBytes += bytes;
+
+            Iterator<BufferedImage> it = memory.values().iterator();
+            while (memoryBytes > MAX_MEMORY_BYTES && it.hasNext()) {
+                memoryBytes -= getBytes(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used files when the disk cache is over
+     * its size, down to 3/4 of it so it does not happen on every save.
+     */
+    private void trimDisk(long added) {
+        synchronized (diskLock) {
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                for (File f : listFiles(SharingSettings.getImageCacheDirectory(), new ArrayList<File>())) {
+                    diskBytes += f.length();
+                }
+            } else {
+                diskBytes += added;
+            }
+
+            if (diskBytes <= MAX_DISK_BYTES) {
+                return;
+            }
+
+            List<File> list = listFiles(SharingSettings.getImageCacheDirectory(), new ArrayList<File>());
+            File[] files = list.toArray(new File[list.size()]);
+            Arrays.sort(files, new Comparator<File>() {
+                public int compare(File o1, File o2) {
+                    long d = o1.lastModified() - o2.lastModified();
+                    return d < 0 ? -1 : (d > 0 ? 1 : 0);
+                }
+            });
+
+            for (int i = 0; i < files.length && diskBytes > MAX_DISK_BYTES * 3 / 4; i++) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    diskBytes -= length;
+                }
+            }
+        }
+    }
+
+    private static List<File> listFiles(File dir, List<File> list) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    listFiles(f, list);
+                } else {
+                    list.add(f);
+                }
+            }
+        }
+        return list;
+    }
+
+    private static long getBytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
     public interface OnLoadedListener {
 
         /**
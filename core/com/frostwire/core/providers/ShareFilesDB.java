@@ -18,6 +18,9 @@
 
 package com.frostwire.core.providers;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.frostwire.content.ContentValues;
@@ -48,6 +51,12 @@ public final class ShareFilesDB {
 
     private final DatabaseHelper databaseHelper;
 
+    /**
+     * Incremented on every modification of the table, lets the readers
+     * know when any previous result is outdated.
+     */
+    private final AtomicLong changeCount;
+
     private static ShareFilesDB instance = new ShareFilesDB();
 
     public static ShareFilesDB intance() {
@@ -56,9 +65,21 @@ public final class ShareFilesDB {
 
     private ShareFilesDB() {
         databaseHelper = new DatabaseHelper(new Context());
+        changeCount = new AtomicLong();
+    }
+
+    public long getChangeCount() {
+        return changeCount.get();
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * @param limit in the form "count" or "offset, count", null for no limit
+     */
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 
         qb.setTables(TABLE_NAME);
@@ -75,12 +96,92 @@ public final class ShareFilesDB {
         // Get the database and run the query
         SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
         return c;
     }
 
     public long insert(ContentValues initialValues) {
+        ContentValues values = withDefaults(initialValues);
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        long id = db.insert(TABLE_NAME, "", values);
+
+        changeCount.incrementAndGet();
+
+        return id;
+    }
+
+    /**
+     * Replaces the rows of the files with the new values, deleting the
+     * previous rows with the same path, all in a single transaction.
+     * 
+     * @return the number of rows inserted, -1 if the transaction failed
+     */
+    public int replace(List<ContentValues> valuesList) {
+        if (valuesList.isEmpty()) {
+            return 0;
+        }
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        String where = Columns.FILE_PATH + " = ?";
+        int count = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues initialValues : valuesList) {
+                ContentValues values = withDefaults(initialValues);
+
+                if (db.delete(TABLE_NAME, where, new String[] { values.getAsString(Columns.FILE_PATH) }) < 0) {
+                    return -1;
+                }
+                if (db.insert(TABLE_NAME, "", values) < 0) {
+                    return -1;
+                }
+                count++;
+            }
+
+            db.setTransactionSuccessful();
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error replacing " + valuesList.size() + " rows", e);
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+
+        changeCount.incrementAndGet();
+
+        return count;
+    }
+
+    public int delete(String where, String[] whereArgs) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count = db.delete(TABLE_NAME, where, whereArgs);
+
+        if (count > 0) {
+            changeCount.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    public int update(ContentValues values, String where, String[] whereArgs) {
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count = db.update(TABLE_NAME, values, where, whereArgs);
+
+        if (count > 0) {
+            changeCount.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    private ContentValues withDefaults(ContentValues initialValues) {
         ContentValues values;
 
         if (initialValues != null) {
@@ -135,26 +236,7 @@ public final class ShareFilesDB {
             values.put(Columns.YEAR, "");
         }
 
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-        return db.insert(TABLE_NAME, "", values);
-    }
-
-    public int delete(String where, String[] whereArgs) {
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-        int count = db.delete(TABLE_NAME, where, whereArgs);
-
-        return count;
-    }
-
-    public int update(ContentValues values, String where, String[] whereArgs) {
-
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-        int count = db.update(TABLE_NAME, values, where, whereArgs);
-
-        return count;
+        return values;
     }
 
     public static final class Columns {
@@ -23,6 +23,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +46,13 @@ public class SQLiteDatabase {
 
     private final AtomicBoolean open = new AtomicBoolean(false);
 
+    /**
+     * Guards the connection, held by a thread for the whole transaction.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private boolean transactionSuccessful;
+
     static {
         try {
             Class.forName("org.h2.Driver");
@@ -90,12 +98,15 @@ public class SQLiteDatabase {
         ResultSet resultSet = null;
 
         try {
-            synchronized (connection) {
+            lock.lock();
+            try {
                 statement = prepareStatement(connection, sql, (Object[]) selectionArgs);
 
                 resultSet = statement.executeQuery();
 
                 return new Cursor(statement, resultSet);
+            } finally {
+                lock.unlock();
             }
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
@@ -288,6 +299,86 @@ public class SQLiteDatabase {
         return executeSql(sql.toString(), bindArgs);
     }
 
+    /**
+     * Begins a transaction. The statements of other threads wait until
+     * the transaction ends, the statements of this thread are part of it.
+     * <p>
+     * The usage is:
+     * <pre>
+     *   db.beginTransaction();
+     *   try {
+     *     ...
+     *     db.setTransactionSuccessful();
+     *   } finally {
+     *     db.endTransaction();
+     *   }
+     * </pre>
+     * Transactions are not nested.
+     */
+    public void beginTransaction() {
+        verifyDbIsOpen();
+
+        lock.lock();
+        try {
+            if (lock.getHoldCount() > 1) {
+                throw new IllegalStateException("Nested transactions are not supported");
+            }
+            connection.setAutoCommit(false);
+            transactionSuccessful = false;
+        } catch (java.sql.SQLException e) {
+            lock.unlock();
+            throw new SQLException(e.getMessage());
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Marks the current transaction as successful, it's committed by
+     * {@link #endTransaction()} instead of rolled back.
+     */
+    public void setTransactionSuccessful() {
+        if (!lock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        transactionSuccessful = true;
+    }
+
+    /**
+     * Ends the current transaction, committing it if it was marked as
+     * successful, rolling it back otherwise.
+     */
+    public void endTransaction() {
+        if (!lock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        try {
+            if (transactionSuccessful) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error ending transaction", e);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (Throwable e) {
+                LOG.log(Level.WARNING, "Error restoring auto commit", e);
+            }
+            transactionSuccessful = false;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the current thread is in a transaction
+     */
+    public boolean inTransaction() {
+        return lock.isHeldByCurrentThread();
+    }
+
     /**
      * @return true if the DB is currently open (has not been closed)
      */
@@ -310,10 +401,13 @@ public class SQLiteDatabase {
     private int executeSql(String sql, Object[] bindArgs) throws SQLException {
         PreparedStatement statement = null;
         try {
-            synchronized (connection) {
+            lock.lock();
+            try {
                 statement = prepareStatement(connection, sql.toString(), bindArgs);
 
                 return statement.executeUpdate();
+            } finally {
+                lock.unlock();
             }
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
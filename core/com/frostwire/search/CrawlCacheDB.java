@@ -18,6 +18,7 @@
 
 package com.frostwire.search;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.commons.io.FileUtils;
@@ -52,7 +53,7 @@ public final class CrawlCacheDB {
 
     private static final String DATABASE_NAME = "crawldb";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     private static final String TABLE_NAME = "CacheData";
 
@@ -71,6 +72,10 @@ public final class CrawlCacheDB {
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 
         qb.setTables(TABLE_NAME);
@@ -87,11 +92,22 @@ public final class CrawlCacheDB {
         // Get the database and run the query
         SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
         return c;
     }
 
+    /**
+     * Returns a one row cursor with the number of entries and the total size of the data.
+     */
+    public Cursor queryStats() {
+        String sql = "SELECT COUNT(" + Columns.ID + "), SUM(" + Columns.SIZE + ") FROM " + TABLE_NAME;
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        return db.rawQueryWithFactory(null, sql, null, TABLE_NAME);
+    }
+
     public long insert(ContentValues initialValues) {
         ContentValues values;
 
@@ -107,6 +123,10 @@ public final class CrawlCacheDB {
             values.put(Columns.DATE_ADDED, now);
         }
 
+        if (values.containsKey(Columns.LAST_ACCESS) == false) {
+            values.put(Columns.LAST_ACCESS, now);
+        }
+
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
         return db.insert(TABLE_NAME, "", values);
@@ -137,7 +157,9 @@ public final class CrawlCacheDB {
         public static final String ID = "id";
         public static final String KEY = "key";
         public static final String DATA = "data";
+        public static final String SIZE = "size";
         public static final String DATE_ADDED = "dateAdded";
+        public static final String LAST_ACCESS = "lastAccess";
     }
 
     /**
@@ -150,6 +172,20 @@ public final class CrawlCacheDB {
             super(context, DATABASE_NAME, null, DATABASE_VERSION, "CACHE_SIZE=4096;CACHE_TYPE=SOFT_TQ");
         }
 
+        private static void deleteOldVersions() {
+            String dbpath = new Context().getDatabasePath(DATABASE_NAME).getAbsolutePath();
+            for (int version = 1; version < DATABASE_VERSION; version++) {
+                File folder = new File(dbpath + "." + version);
+                if (folder.exists()) {
+                    try {
+                        FileUtils.deleteDirectory(folder);
+                    } catch (IOException e) {
+                        LOG.warn("Unable to delete old crawl cache database: " + folder);
+                    }
+                }
+            }
+        }
+
         @Override
         public void onCreate(SQLiteDatabase db) {
             if (SearchSettings.SMART_SEARCH_DATABASE_FOLDER.getValue().exists()) {
@@ -160,12 +196,16 @@ public final class CrawlCacheDB {
                 }
             }
 
+            // the version is part of the database folder, previous versions are never upgraded in place
+            deleteOldVersions();
+
             db.execSQL("SET IGNORECASE TRUE");
 
-            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT" + ");");
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.SIZE + " INTEGER," + Columns.DATE_ADDED + " BIGINT," + Columns.LAST_ACCESS + " BIGINT" + ");");
 
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.ID + " ON " + TABLE_NAME + " (" + Columns.ID + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.KEY + " ON " + TABLE_NAME + " (" + Columns.KEY + ")");
+            db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.LAST_ACCESS + " ON " + TABLE_NAME + " (" + Columns.LAST_ACCESS + ")");
         }
 
         @Override
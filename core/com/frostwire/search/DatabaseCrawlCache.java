@@ -17,6 +17,11 @@
 
 package com.frostwire.search;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +31,13 @@ import com.frostwire.search.CrawlCacheDB.Columns;
 import com.limegroup.gnutella.settings.SearchSettings;
 
 /**
+ * Crawl cache backed by the H2 crawl database.
+ * <p>
+ * The cache is bounded by a maximum number of bytes and entries, when any of
+ * these limits is exceeded the least recently accessed entries are evicted
+ * until the cache is under the low water mark (90% of the limits). The number
+ * of entries and bytes are kept in memory, so {@link #size()} and
+ * {@link #sizeInBytes()} never scan the table.
  * 
  * @author gubatron
  * @author aldenml
@@ -35,10 +47,39 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseCrawlCache.class);
 
-    private CrawlCacheDB db;
+    /**
+     * Don't write the last access time of an entry more than once in this
+     * period (in seconds), it keeps reads from turning into writes.
+     */
+    private static final long ACCESS_GRANULARITY = 60 * 60; // 1 hour
+
+    private static final int EVICTION_BATCH_SIZE = 200;
+
+    private final CrawlCacheDB db;
+
+    private final long maxBytes;
+    private final long maxEntries;
+
+    private final AtomicLong numEntries;
+    private final AtomicLong numBytes;
+    private final AtomicBoolean evicting;
+
+    public DatabaseCrawlCache(long maxBytes, long maxEntries) {
+        this.db = CrawlCacheDB.instance();
+
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+
+        this.numEntries = new AtomicLong(0);
+        this.numBytes = new AtomicLong(0);
+        this.evicting = new AtomicBoolean(false);
+
+        loadCounters();
+        evictIfNecessary();
+    }
 
     public DatabaseCrawlCache() {
-        db = CrawlCacheDB.instance();
+        this(SearchSettings.SMART_SEARCH_CACHE_MAX_BYTES.getValue(), SearchSettings.SMART_SEARCH_CACHE_MAX_ENTRIES.getValue());
     }
 
     @Override
@@ -48,7 +89,7 @@ public class DatabaseCrawlCache implements CrawlCache {
         Cursor c = null;
 
         try {
-            String[] columns = new String[] { Columns.DATA };
+            String[] columns = new String[] { Columns.ID, Columns.DATA, Columns.LAST_ACCESS };
             String where = Columns.KEY + " = ?";
             String[] whereArgs = new String[] { key };
 
@@ -56,6 +97,11 @@ public class DatabaseCrawlCache implements CrawlCache {
 
             if (c.moveToNext()) {
                 data = c.getBytes(c.getColumnIndex(Columns.DATA));
+
+                long now = System.currentTimeMillis() / 1000;
+                if (now - c.getLong(c.getColumnIndex(Columns.LAST_ACCESS)) > ACCESS_GRANULARITY) {
+                    touch(c.getInt(c.getColumnIndex(Columns.ID)), now);
+                }
             }
 
         } catch (Throwable e) {
@@ -73,12 +119,20 @@ public class DatabaseCrawlCache implements CrawlCache {
     public void put(String key, byte[] data) {
         if (SearchSettings.SMART_SEARCH_ENABLED.getValue()) {
             try {
+                remove(key); // avoid duplicated entries for the same key
+
                 ContentValues values = new ContentValues();
 
                 values.put(Columns.KEY, key);
                 values.put(Columns.DATA, data);
+                values.put(Columns.SIZE, data.length);
 
-                db.insert(values);
+                if (db.insert(values) > 0) {
+                    numEntries.incrementAndGet();
+                    numBytes.addAndGet(data.length);
+                }
+
+                evictIfNecessary();
             } catch (Throwable e) {
                 LOG.warn("Error putting value to crawl cache: " + e.getMessage());
             }
@@ -87,13 +141,27 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     @Override
     public void remove(String key) {
+        Cursor c = null;
+
         try {
+            String[] columns = new String[] { Columns.ID, Columns.SIZE };
             String where = Columns.KEY + " = ?";
             String[] whereArgs = new String[] { key };
 
-            db.delete(where, whereArgs);
+            c = db.query(columns, where, whereArgs, null);
+
+            while (c.moveToNext()) {
+                int id = c.getInt(c.getColumnIndex(Columns.ID));
+                long size = c.getLong(c.getColumnIndex(Columns.SIZE));
+
+                deleteById(id, size);
+            }
         } catch (Throwable e) {
             LOG.warn("Error deleting value from crawl cache: " + e.getMessage());
+        } finally {
+            if (c != null) {
+                c.close();
+            }
         }
     }
 
@@ -103,33 +171,136 @@ public class DatabaseCrawlCache implements CrawlCache {
             db.delete("", new String[] {});
         } catch (Throwable e) {
             LOG.warn("Error deleting crawl cache: " + e.getMessage());
+        } finally {
+            loadCounters();
         }
     }
 
     @Override
     public long size() {
-        long size = 0;
+        return numEntries.get();
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return numBytes.get();
+    }
 
+    /**
+     * Reads the counters from the database, only performed at startup and
+     * after a clear, never in the regular put/get path.
+     */
+    private void loadCounters() {
         Cursor c = null;
 
         try {
+            c = db.queryStats();
 
-            String[] columns = new String[] { Columns.ID };
+            if (c.moveToNext()) {
+                numEntries.set(c.getLong(1));
+                numBytes.set(c.getLong(2));
+            }
+        } catch (Throwable e) {
+            LOG.warn("Failed to read crawl cache size", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private void evictIfNecessary() {
+        if (!isOverLimit(maxBytes, maxEntries)) {
+            return;
+        }
+
+        // only one thread evicts, the rest keep going
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long lowBytes = maxBytes - maxBytes / 10;
+            long lowEntries = maxEntries - maxEntries / 10;
+
+            while (isOverLimit(lowBytes, lowEntries)) {
+                if (evictBatch(lowBytes, lowEntries) == 0) {
+                    break;
+                }
+            }
+
+            LOG.debug("Crawl cache evicted to " + numEntries.get() + " entries, " + numBytes.get() + " bytes");
+        } catch (Throwable e) {
+            LOG.warn("Error evicting entries from crawl cache: " + e.getMessage());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private boolean isOverLimit(long bytes, long entries) {
+        return numBytes.get() > bytes || numEntries.get() > entries;
+    }
+
+    /**
+     * Removes the least recently accessed entries.
+     * 
+     * @return the number of entries evicted
+     */
+    private int evictBatch(long lowBytes, long lowEntries) {
+        List<long[]> victims = new ArrayList<long[]>(EVICTION_BATCH_SIZE);
+
+        Cursor c = null;
+
+        try {
+            String[] columns = new String[] { Columns.ID, Columns.SIZE };
             String where = "";
             String[] whereArgs = new String[] {};
+            String sortOrder = Columns.LAST_ACCESS + " ASC, " + Columns.ID + " ASC";
 
-            c = db.query(columns, where, whereArgs, null);
+            c = db.query(columns, where, whereArgs, sortOrder, String.valueOf(EVICTION_BATCH_SIZE));
 
-            size = c.getCount();
+            int idCol = c.getColumnIndex(Columns.ID);
+            int sizeCol = c.getColumnIndex(Columns.SIZE);
 
-        } catch (Exception e) {
-            LOG.warn("Failed to get num of shared files", e);
+            while (c.moveToNext()) {
+                victims.add(new long[] { c.getInt(idCol), c.getLong(sizeCol) });
+            }
         } finally {
             if (c != null) {
                 c.close();
             }
         }
 
-        return size;
+        int evicted = 0;
+
+        for (long[] victim : victims) {
+            if (!isOverLimit(lowBytes, lowEntries)) {
+                break;
+            }
+            deleteById((int) victim[0], victim[1]);
+            evicted++;
+        }
+
+        return evicted;
+    }
+
+    private void deleteById(int id, long size) {
+        String where = Columns.ID + " = ?";
+        String[] whereArgs = new String[] { String.valueOf(id) };
+
+        if (db.delete(where, whereArgs) > 0) {
+            numEntries.decrementAndGet();
+            numBytes.addAndGet(-size);
+        }
+    }
+
+    private void touch(int id, long now) {
+        ContentValues values = new ContentValues();
+        values.put(Columns.LAST_ACCESS, now);
+
+        String where = Columns.ID + " = ?";
+        String[] whereArgs = new String[] { String.valueOf(id) };
+
+        db.update(values, where, whereArgs);
     }
 }
@@ -21,6 +21,7 @@ import org.limewire.setting.BooleanSetting;
 import org.limewire.setting.CharArraySetting;
 import org.limewire.setting.FileSetting;
 import org.limewire.setting.IntSetting;
+import org.limewire.setting.LongSetting;
 import org.limewire.setting.StringSetting;
 import org.limewire.util.CommonUtils;
 
@@ -325,6 +326,21 @@ public final class SearchSettings extends LimeProps {
 	public static final StringSetting LAST_MEDIA_TYPE_USED = FACTORY.createStringSetting("LAST_MEDIA_TYPE_USED", MediaType.getAudioMediaType().getMimeType());
 	
 	public static final BooleanSetting SMART_SEARCH_ENABLED = FACTORY.createBooleanSetting("SMART_SEARCH_ENABLED", true);
+
+    /**
+     * The maximum number of bytes of crawled data (torrents, detail pages) to keep in the crawl cache.
+     */
+    public static final LongSetting SMART_SEARCH_CACHE_MAX_BYTES = FACTORY.createLongSetting("SMART_SEARCH_CACHE_MAX_BYTES", 512L * 1024 * 1024);
+
+    /**
+     * The maximum number of entries to keep in the crawl cache.
+     */
+    public static final IntSetting SMART_SEARCH_CACHE_MAX_ENTRIES = FACTORY.createIntSetting("SMART_SEARCH_CACHE_MAX_ENTRIES", 50000);
+
+    /**
+     * The maximum number of bytes of the in-memory tier of the crawl cache.
+     */
+    public static final LongSetting SMART_SEARCH_CACHE_MEMORY_BYTES = FACTORY.createLongSetting("SMART_SEARCH_CACHE_MEMORY_BYTES", 16L * 1024 * 1024);
 	
     public static final BooleanSetting SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START = FACTORY.createBooleanSetting("SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START", false);
 }
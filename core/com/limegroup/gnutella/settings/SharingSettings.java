@@ -193,6 +193,13 @@ public class SharingSettings extends LimeProps {
     public static final IntSetting PERSISTENT_HTTP_CONNECTION_TIMEOUT =
         FACTORY.createIntSetting("PERSISTENT_HTTP_CONNECTION_TIMEOUT", 15000);
     
+    /**
+     * The maximum number of simultaneous uploads served by the local
+     * http server to the devices in the network.
+     */
+    public static final IntSetting MAX_HTTP_UPLOADS =
+        FACTORY.createIntSetting("MAX_HTTP_UPLOADS", 4);
+    
     /**
      * Specifies whether or not completed uploads
      * should automatically be cleared from the upload window.
@@ -27,9 +27,13 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.limewire.concurrent.ExecutorsHelper;
+
 import com.frostwire.core.ConfigurationManager;
 import com.frostwire.core.Constants;
 import com.frostwire.core.FileDescriptor;
@@ -53,9 +57,26 @@ public final class Librarian {
     public static final int FILE_STATE_SHARING = 1;
     public static final int FILE_STATE_SHARED = 2;
 
+    /**
+     * Files checked by the sweeper before taking a pause, keeps the disk
+     * activity low with big libraries.
+     */
+    private static final int SWEEP_BATCH_SIZE = 100;
+    private static final long SWEEP_BATCH_PAUSE_MILLIS = 500;
+    private static final long SWEEP_INTERVAL_MINUTES = 10;
+
+    /**
+     * The default order by date added, in seconds and the same for the files
+     * of a scan, with the id as tiebreaker so the pages don't overlap.
+     */
+    private static final String PAGE_SORT_ORDER = ShareFilesDB.DEFAULT_SORT_ORDER + ", " + Columns.ID + " DESC";
+
     //private final Set<String> pathSharedSet;
     private final Set<String> pathSharingSet;
     private final ExecutorService shareFileExec;
+    private final SharedFilesIndex sharedIndex;
+    private boolean sharedIndexLoaded;
+    private final ScheduledExecutorService sweeperExec;
 
     private static final Librarian instance = new Librarian();
 
@@ -67,6 +88,15 @@ public final class Librarian {
         //this.pathSharedSet = Collections.synchronizedSet(new HashSet<String>());
         this.pathSharingSet = Collections.synchronizedSet(new HashSet<String>());
         this.shareFileExec = Executors.newSingleThreadExecutor();
+        this.sharedIndex = new SharedFilesIndex();
+        this.sweeperExec = Executors.newSingleThreadScheduledExecutor(ExecutorsHelper.daemonThreadFactory("Librarian-Sweeper"));
+
+        sweeperExec.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweepSharedFiles();
+            }
+        }, 1, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
     }
 
     public Finger finger() {
@@ -113,61 +143,11 @@ public final class Librarian {
      * @return
      */
     public int getNumSharedFiles(byte fileType) {
-        Cursor c = null;
-
-        int numFiles = 0;
-
-        try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
-            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
-            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            numFiles = fds.size();
-
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
-        }
-
-        return numFiles;
+        return getSharedIndex().getCount(fileType);
     }
 
     public boolean isFileShared(String filePath) {
-        Cursor c = null;
-
-        boolean isShared = false;
-
-        try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
-            String where = Columns.FILE_PATH + " = ?";
-            String[] whereArgs = new String[] { filePath };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            isShared = fds.size() == 1;
-
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
-        }
-
-        return isShared;
+        return getSharedIndex().contains(filePath);
     }
 
     private List<FileDescriptor> filteredOutBadRows(Cursor c) {
@@ -212,6 +192,19 @@ public final class Librarian {
     }
 
     public List<FileDescriptor> getSharedFiles(byte fileType) {
+        return getSharedFiles(fileType, 0, -1);
+    }
+
+    /**
+     * Returns a page of the shared files of the given type. The page could
+     * have less than <code>limit</code> elements if some files no longer exist.
+     * 
+     * @param fileType
+     * @param offset
+     * @param limit - negative to return all the files from offset.
+     * @return
+     */
+    public List<FileDescriptor> getSharedFiles(byte fileType, int offset, int limit) {
         List<FileDescriptor> result = new ArrayList<FileDescriptor>();
 
         Cursor c = null;
@@ -222,12 +215,20 @@ public final class Librarian {
             String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
             String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
             String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
+            String limitClause = null;
 
-            c = db.query(columns, where, whereArgs, null);
+            if (limit >= 0) {
+                limitClause = offset + ", " + limit;
+            } else if (offset > 0) {
+                limitClause = offset + ", " + Integer.MAX_VALUE;
+            }
 
-            List<FileDescriptor> fds = filteredOutBadRows(c);
+            c = db.query(columns, where, whereArgs, PAGE_SORT_ORDER, limitClause);
 
-            return fds;
+            // the existence of the files is checked by the sweeper
+            while (c.moveToNext()) {
+                result.add(cursorToFileDescriptor(c));
+            }
 
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "General failure getting files", e);
@@ -240,8 +241,33 @@ public final class Librarian {
         return result;
     }
 
-    public void scan(File file) {
-        scan(file, TorrentUtil.getIgnorableFiles());
+    /**
+     * A number that changes every time the shared files change, useful to
+     * detect outdated information.
+     */
+    public long getSharedFilesChangeCount() {
+        return ShareFilesDB.intance().getChangeCount();
+    }
+
+    /**
+     * Shares the files, and all the files of the folders, returns when done.
+     * The files already shared and not modified since are not read again.
+     */
+    private void scan(List<File> files) {
+        LibraryScanner scanner = new LibraryScanner(TorrentUtil.getIgnorableFiles(), new LibraryScanner.BatchListener() {
+            @Override
+            public void onBatchWritten(List<String> filePaths) {
+                indexSharedFiles(filePaths);
+            }
+        });
+
+        try {
+            scanner.scan(files);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error scanning " + files.size() + " files", e);
+        }
     }
 
     public int getFileShareState(String filePath) {
@@ -256,45 +282,54 @@ public final class Librarian {
         return FILE_STATE_UNSHARED;
     }
 
-    private void scan(File file, Set<File> ignorableFiles) {
-        if (ignorableFiles.contains(file)) {
-            return;
-        }
-
-        if (file.isDirectory()) {
-            for (File child : file.listFiles()) {
-                if (child.isDirectory() || child.isFile()) {
-                    scan(child);
-                }
-            }
-        } else if (file.isFile()) {
-            new UniversalScanner().scan(file.getAbsolutePath());
-        }
-    }
-
     public void shareFile(final String filePath, final boolean share) {
         shareFile(filePath, share, true);
     }
     
     public void shareFile(final String filePath, final boolean share, final boolean refreshPing) {
-        if (pathSharingSet.contains(filePath)) {
-            return;
+        shareFiles(Collections.singletonList(filePath), share, refreshPing);
+    }
+
+    /**
+     * Shares or unshares the files in a single background task, the files
+     * are scanned together so the rows are written in batches.
+     */
+    public void shareFiles(List<String> filePaths, final boolean share, final boolean refreshPing) {
+        final List<String> paths = new ArrayList<String>(filePaths.size());
+
+        synchronized (pathSharingSet) {
+            for (String filePath : filePaths) {
+                if (pathSharingSet.add(filePath)) {
+                    paths.add(filePath);
+                }
+            }
         }
 
-        pathSharingSet.add(filePath);
+        if (paths.isEmpty()) {
+            return;
+        }
 
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                deleteFromShareTable(filePath);
-
-                if (share) {
-                    new UniversalScanner().scan(filePath);
-                    //pathSharedSet.add(filePath);
+                try {
+                    if (share) {
+                        List<File> files = new ArrayList<File>(paths.size());
+                        for (String filePath : paths) {
+                            files.add(new File(filePath));
+                        }
+                        scan(files);
+                    } else {
+                        for (String filePath : paths) {
+                            deleteFromShareTable(filePath);
+                        }
+                    }
+                } finally {
+                    synchronized (pathSharingSet) {
+                        pathSharingSet.removeAll(paths);
+                    }
                 }
 
-                pathSharingSet.remove(filePath);
-
                 if (refreshPing) {
                     UPnPManager.instance().refreshPing();
                 }
@@ -311,6 +346,8 @@ public final class Librarian {
         ShareFilesDB db = ShareFilesDB.intance();
 
         db.delete(where, whereArgs);
+
+        sharedIndex.remove(filePath);
     }
     
     public void deleteFolderFilesFromShareTable(String folderPath) {
@@ -324,6 +361,126 @@ public final class Librarian {
         } catch (Exception e) {
         
         }
+
+        sharedIndex.removeFolder(folderPath);
+    }
+
+    /**
+     * Returns the index of the shared files, loading it from the
+     * database the first time.
+     */
+    private SharedFilesIndex getSharedIndex() {
+        synchronized (sharedIndex) {
+            if (!sharedIndexLoaded) {
+                loadSharedIndex();
+                sharedIndexLoaded = true;
+            }
+        }
+
+        return sharedIndex;
+    }
+
+    private void loadSharedIndex() {
+        Cursor c = null;
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH };
+            String where = Columns.SHARED + " = ?";
+            String[] whereArgs = new String[] { String.valueOf(true) };
+
+            c = db.query(columns, where, whereArgs, null);
+
+            int idCol = c.getColumnIndex(Columns.ID);
+            int fileTypeCol = c.getColumnIndex(Columns.FILE_TYPE);
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+
+            sharedIndex.clear();
+
+            while (c.moveToNext()) {
+                sharedIndex.add(c.getString(filePathCol), c.getInt(idCol), c.getByte(fileTypeCol));
+            }
+
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Failed to load the index of shared files", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Indexes the shared rows of the files with a single query. Every path
+     * that writes shared rows goes through here, the index is what answers
+     * {@link #isFileShared(String)}, the counts and the finger.
+     */
+    private void indexSharedFiles(List<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return;
+        }
+
+        Cursor c = null;
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            StringBuilder where = new StringBuilder(Columns.SHARED + " = ? AND " + Columns.FILE_PATH + " IN (");
+            String[] whereArgs = new String[filePaths.size() + 1];
+            whereArgs[0] = String.valueOf(true);
+            for (int i = 0; i < filePaths.size(); i++) {
+                where.append(i > 0 ? ",?" : "?");
+                whereArgs[i + 1] = filePaths.get(i);
+            }
+            where.append(')');
+
+            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH };
+
+            c = db.query(columns, where.toString(), whereArgs, null);
+
+            int idCol = c.getColumnIndex(Columns.ID);
+            int fileTypeCol = c.getColumnIndex(Columns.FILE_TYPE);
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+
+            while (c.moveToNext()) {
+                sharedIndex.add(c.getString(filePathCol), c.getInt(idCol), c.getByte(fileTypeCol));
+            }
+
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Failed to index " + filePaths.size() + " shared files", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Removes from the share table the files that no longer exist, pausing
+     * every few files so it does not compete with the rest of the application.
+     */
+    private void sweepSharedFiles() {
+        try {
+            List<String> paths = getSharedIndex().getPaths();
+
+            int n = 0;
+
+            for (String filePath : paths) {
+                if (!(new File(filePath)).exists()) {
+                    deleteFromShareTable(filePath);
+                }
+
+                n++;
+                if (n % SWEEP_BATCH_SIZE == 0) {
+                    Thread.sleep(SWEEP_BATCH_PAUSE_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop sweeping
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error sweeping no existent shared files", e);
+        }
     }
 
     private FileDescriptor cursorToFileDescriptor(Cursor c) {
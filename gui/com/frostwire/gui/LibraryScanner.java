@@ -0,0 +1,314 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.limewire.concurrent.ExecutorsHelper;
+
+import com.frostwire.content.ContentValues;
+import com.frostwire.core.providers.ShareFilesDB;
+import com.frostwire.core.providers.ShareFilesDB.Columns;
+import com.frostwire.database.Cursor;
+
+/**
+ * Shares files, and all the files of folders.
+ *
+ * The folders are walked in parallel, the tags are read by a small pool of
+ * threads and the rows are written to the share table in batches, one
+ * transaction per batch. The files with the same size and modification date
+ * of their shared row are not read again, so a rescan only processes the
+ * files added or changed since the last one.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class LibraryScanner {
+
+    private static final Logger LOG = Logger.getLogger(LibraryScanner.class.getName());
+
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Files waiting for the extractors, when full the walkers read the tags
+     * themselves instead of listing more files.
+     */
+    private static final int EXTRACT_QUEUE_SIZE = 256;
+
+    private static final int MAX_THREADS = 4;
+
+    private final Set<File> ignorableFiles;
+    private final BatchListener listener;
+    private final UniversalScanner scanner;
+
+    private final AtomicInteger walked;
+    private final AtomicInteger skipped;
+    private final AtomicInteger written;
+    private final AtomicInteger failed;
+
+    private Map<String, Stamp> stamps;
+    private ThreadPoolExecutor extractors;
+    private List<ContentValues> batch;
+
+    public LibraryScanner(Set<File> ignorableFiles, BatchListener listener) {
+        this.ignorableFiles = ignorableFiles;
+        this.listener = listener;
+        this.scanner = new UniversalScanner();
+
+        this.walked = new AtomicInteger(0);
+        this.skipped = new AtomicInteger(0);
+        this.written = new AtomicInteger(0);
+        this.failed = new AtomicInteger(0);
+    }
+
+    /**
+     * Scans the files or folders, returns when all the rows are written.
+     */
+    public void scan(Collection<File> roots) throws InterruptedException {
+        long start = System.currentTimeMillis();
+
+        int nThreads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+
+        stamps = new HashMap<String, Stamp>();
+        for (File root : roots) {
+            stamps.putAll(loadStamps(root.getAbsolutePath()));
+        }
+        batch = new ArrayList<ContentValues>(BATCH_SIZE);
+        extractors = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(EXTRACT_QUEUE_SIZE), ExecutorsHelper.daemonThreadFactory("LibraryScanner-Extractor"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        ForkJoinPool walkers = new ForkJoinPool(nThreads);
+
+        try {
+            for (File root : roots) {
+                if (ignorableFiles.contains(root)) {
+                    continue;
+                }
+
+                if (root.isDirectory()) {
+                    walkers.invoke(new DirectoryTask(root));
+                } else if (root.isFile()) {
+                    visit(root);
+                }
+            }
+        } finally {
+            walkers.shutdown();
+            extractors.shutdown();
+        }
+
+        extractors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        List<ContentValues> last;
+        synchronized (this) {
+            last = batch;
+            batch = null;
+        }
+        write(last);
+
+        LOG.info(String.format("Scanned %d roots in %d ms, files: %d, unchanged: %d, written: %d, failed: %d", roots.size(), System.currentTimeMillis() - start, walked.get(), skipped.get(), written.get(), failed.get()));
+    }
+
+    public int getWalked() {
+        return walked.get();
+    }
+
+    /**
+     * Number of files not read because their shared row is up to date.
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getWritten() {
+        return written.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    private void visit(File file) {
+        walked.incrementAndGet();
+
+        final String filePath = file.getAbsolutePath();
+
+        Stamp stamp = stamps.get(filePath);
+        if (stamp != null && stamp.fileSize == file.length() && stamp.dateModified == file.lastModified()) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        extractors.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    add(scanner.extract(filePath));
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    LOG.log(Level.WARNING, "Error scanning file: " + filePath, e);
+                }
+            }
+        });
+    }
+
+    private void add(ContentValues values) {
+        List<ContentValues> full = null;
+
+        synchronized (this) {
+            batch.add(values);
+            if (batch.size() >= BATCH_SIZE) {
+                full = batch;
+                batch = new ArrayList<ContentValues>(BATCH_SIZE);
+            }
+        }
+
+        if (full != null) {
+            write(full);
+        }
+    }
+
+    private void write(List<ContentValues> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+
+        int n = ShareFilesDB.intance().replace(values);
+
+        if (n < 0) {
+            failed.addAndGet(values.size());
+            return;
+        }
+
+        written.addAndGet(n);
+
+        if (listener != null) {
+            List<String> paths = new ArrayList<String>(values.size());
+            for (ContentValues v : values) {
+                paths.add(v.getAsString(Columns.FILE_PATH));
+            }
+            listener.onBatchWritten(paths);
+        }
+    }
+
+    /**
+     * Size and modification date of the shared rows under the folder.
+     */
+    private static Map<String, Stamp> loadStamps(String folderPath) {
+        Map<String, Stamp> stamps = new HashMap<String, Stamp>();
+
+        Cursor c = null;
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            String[] columns = new String[] { Columns.FILE_PATH, Columns.FILE_SIZE, Columns.DATE_MODIFIED };
+            String where = Columns.FILE_PATH + " LIKE ? AND " + Columns.SHARED + " = ?";
+            String[] whereArgs = new String[] { folderPath + "%", String.valueOf(true) };
+
+            c = db.query(columns, where, whereArgs, null);
+
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+            int fileSizeCol = c.getColumnIndex(Columns.FILE_SIZE);
+            int dateModifiedCol = c.getColumnIndex(Columns.DATE_MODIFIED);
+
+            while (c.moveToNext()) {
+                stamps.put(c.getString(filePathCol), new Stamp(c.getLong(fileSizeCol), c.getLong(dateModifiedCol)));
+            }
+
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Failed to load the shared files of: " + folderPath + ", scanning all", e);
+            stamps.clear();
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return stamps;
+    }
+
+    public interface BatchListener {
+
+        /**
+         * Called from the scan threads after the rows of the files are written.
+         */
+        public void onBatchWritten(List<String> filePaths);
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 2563214508226442981L;
+
+        private final File folder;
+
+        public DirectoryTask(File folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = folder.listFiles();
+            if (children == null) {
+                return;
+            }
+
+            List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+
+            for (File child : children) {
+                if (ignorableFiles.contains(child)) {
+                    continue;
+                }
+
+                if (child.isDirectory()) {
+                    subtasks.add(new DirectoryTask(child));
+                } else if (child.isFile()) {
+                    visit(child);
+                }
+            }
+
+            invokeAll(subtasks);
+        }
+    }
+
+    private static final class Stamp {
+
+        public final long fileSize;
+        public final long dateModified;
+
+        public Stamp(long fileSize, long dateModified) {
+            this.fileSize = fileSize;
+            this.dateModified = dateModified;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory mirror of the shared rows of the share table, path to
+ * id and type, with the number of shared files per type.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SharedFilesIndex {
+
+    private static final int NUM_FILE_TYPES = 8;
+
+    private final Map<String, Entry> entries;
+    private final int[] counts;
+
+    public SharedFilesIndex() {
+        this.entries = new HashMap<String, Entry>();
+        this.counts = new int[NUM_FILE_TYPES];
+    }
+
+    public synchronized void add(String filePath, int id, byte fileType) {
+        Entry old = entries.put(filePath, new Entry(id, fileType));
+        if (old != null) {
+            decrement(old.fileType);
+        }
+        increment(fileType);
+    }
+
+    public synchronized boolean remove(String filePath) {
+        Entry old = entries.remove(filePath);
+        if (old != null) {
+            decrement(old.fileType);
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void removeFolder(String folderPath) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().startsWith(folderPath)) {
+                decrement(e.getValue().fileType);
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+    }
+
+    public synchronized boolean contains(String filePath) {
+        return entries.containsKey(filePath);
+    }
+
+    /**
+     * @return the id of the shared file, -1 if the path is not shared
+     */
+    public synchronized int getId(String filePath) {
+        Entry e = entries.get(filePath);
+        return e != null ? e.id : -1;
+    }
+
+    public synchronized int getCount(byte fileType) {
+        return fileType >= 0 && fileType < NUM_FILE_TYPES ? counts[fileType] : 0;
+    }
+
+    public synchronized List<String> getPaths() {
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    private void increment(byte fileType) {
+        if (fileType >= 0 && fileType < NUM_FILE_TYPES) {
+            counts[fileType]++;
+        }
+    }
+
+    private void decrement(byte fileType) {
+        if (fileType >= 0 && fileType < NUM_FILE_TYPES) {
+            counts[fileType]--;
+        }
+    }
+
+    private static final class Entry {
+
+        public final int id;
+        public final byte fileType;
+
+        public Entry(int id, byte fileType) {
+            this.id = id;
+            this.fileType = fileType;
+        }
+    }
+}
@@ -33,6 +33,8 @@ import com.frostwire.content.ContentValues;
 import com.frostwire.core.Constants;
 import com.frostwire.core.providers.ShareFilesDB;
 import com.frostwire.core.providers.ShareFilesDB.Columns;
+import com.frostwire.gui.library.LibraryFilesIndex;
+import com.frostwire.gui.library.tags.TagsCache;
 import com.frostwire.gui.library.tags.TagsData;
 import com.frostwire.gui.library.tags.TagsReader;
 import com.frostwire.util.MimeDetector;
@@ -51,28 +53,39 @@ public class UniversalScanner {
     }
 
     public void scan(String filePath) {
+        ShareFilesDB db = ShareFilesDB.intance();
+
+        db.insert(extract(filePath));
+    }
+
+    /**
+     * Reads the values of the row of the file, with the tags for the
+     * audio and pictures, without writing them to the share table.
+     * Safe to call from several threads at once.
+     */
+    public ContentValues extract(String filePath) {
         try {
             MediaType mt = MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(filePath));
 
             if (mt == null) {
-                scanDocument(filePath, true);
+                return scanDocument(filePath, true);
             } else if (mt.equals(MediaType.getAudioMediaType())) {
-                scanAudio(filePath, true);
+                return scanAudio(filePath, true);
             } else if (mt.equals(MediaType.getImageMediaType())) {
-                scanPictures(filePath, true);
+                return scanPictures(filePath, true);
             } else if (mt.equals(MediaType.getVideoMediaType())) {
-                scanVideo(filePath, true); // until we integrate mplayer for video and research metadata extraction
+                return scanVideo(filePath, true); // until we integrate mplayer for video and research metadata extraction
             } else {
-                scanDocument(filePath, true);
+                return scanDocument(filePath, true);
             }
 
         } catch (Throwable e) {
-            scanDocument(filePath, true);
             LOG.log(Level.WARNING, "Error scanning file, scanned as document: " + filePath, e);
+            return scanDocument(filePath, true);
         }
     }
 
-    private void scanPictures(String filePath, boolean shared) {
+    private ContentValues scanPictures(String filePath, boolean shared) {
         File file = new File(filePath);
 
         ContentValues values = new ContentValues();
@@ -81,34 +94,16 @@ public class UniversalScanner {
         fillCommonValues(values, Constants.FILE_TYPE_PICTURES, filePath, file, mime, shared);
 
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
-
-            ExifIFD0Directory dir = metadata.getDirectory(ExifIFD0Directory.class);
-            ExifIFD0Descriptor desc = new ExifIFD0Descriptor(dir);
-
-            String title = desc.getWindowsTitleDescription();
-            if (StringUtils.isNullOrEmpty(title, true)) {
-                title = FilenameUtils.getBaseName(file.getName());
-            }
-
-            String artist = desc.getWindowsAuthorDescription();
-            if (StringUtils.isNullOrEmpty(artist, true)) {
-                artist = dir.getString(ExifIFD0Directory.TAG_ARTIST, "UTF-8");
-            }
-            if (StringUtils.isNullOrEmpty(artist, true)) {
-                artist = "";
-            }
-
-            String album = "";
-            String year = dir.getString(ExifIFD0Directory.TAG_DATETIME);
-            if (StringUtils.isNullOrEmpty(year, true)) {
-                year = "";
+            TagsData data = TagsCache.instance().get(file);
+            if (data == null) {
+                data = readPictureTags(file);
+                TagsCache.instance().put(file, data);
             }
 
-            values.put(Columns.TITLE, title);
-            values.put(Columns.ARTIST, artist);
-            values.put(Columns.ALBUM, album);
-            values.put(Columns.YEAR, year);
+            values.put(Columns.TITLE, data.getTitle());
+            values.put(Columns.ARTIST, data.getArtist());
+            values.put(Columns.ALBUM, data.getAlbum());
+            values.put(Columns.YEAR, data.getYear());
         } catch (Throwable e) {
             String displayName = FilenameUtils.getBaseName(file.getName());
 
@@ -118,9 +113,35 @@ public class UniversalScanner {
             values.put(Columns.YEAR, "");
         }
 
-        ShareFilesDB db = ShareFilesDB.intance();
+        return values;
+    }
+
+    private TagsData readPictureTags(File file) throws Exception {
+        Metadata metadata = ImageMetadataReader.readMetadata(file);
 
-        db.insert(values);
+        ExifIFD0Directory dir = metadata.getDirectory(ExifIFD0Directory.class);
+        ExifIFD0Descriptor desc = new ExifIFD0Descriptor(dir);
+
+        String title = desc.getWindowsTitleDescription();
+        if (StringUtils.isNullOrEmpty(title, true)) {
+            title = FilenameUtils.getBaseName(file.getName());
+        }
+
+        String artist = desc.getWindowsAuthorDescription();
+        if (StringUtils.isNullOrEmpty(artist, true)) {
+            artist = dir.getString(ExifIFD0Directory.TAG_ARTIST, "UTF-8");
+        }
+        if (StringUtils.isNullOrEmpty(artist, true)) {
+            artist = "";
+        }
+
+        String album = "";
+        String year = dir.getString(ExifIFD0Directory.TAG_DATETIME);
+        if (StringUtils.isNullOrEmpty(year, true)) {
+            year = "";
+        }
+
+        return new TagsData(0, "", title, artist, album, "", "", "", year);
     }
 
     private void fillCommonValues(ContentValues values, byte fileType, String filePath, File file, String mime, boolean shared) {
@@ -133,7 +154,7 @@ public class UniversalScanner {
         values.put(Columns.SHARED, shared);
     }
 
-    private void scanAudio(String filePath, boolean shared) {
+    private ContentValues scanAudio(String filePath, boolean shared) {
         File file = new File(filePath);
 
         ContentValues values = new ContentValues();
@@ -148,6 +169,8 @@ public class UniversalScanner {
             values.put(Columns.ARTIST, mt.getArtist());
             values.put(Columns.ALBUM, mt.getAlbum());
             values.put(Columns.YEAR, mt.getYear());
+
+            LibraryFilesIndex.instance().setTags(filePath, mt.getTitle(), mt.getArtist(), mt.getAlbum());
         } catch (Throwable e) {
             String displayName = FilenameUtils.getBaseName(file.getName());
 
@@ -157,21 +180,19 @@ public class UniversalScanner {
             values.put(Columns.YEAR, "");
         }
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
-    private void scanVideo(String filePath, boolean shared) {
+    private ContentValues scanVideo(String filePath, boolean shared) {
         String mime = "video/" + FilenameUtils.getExtension(filePath);
-        scanBasic(Constants.FILE_TYPE_VIDEOS, filePath, mime, shared);
+        return scanBasic(Constants.FILE_TYPE_VIDEOS, filePath, mime, shared);
     }
 
-    private void scanDocument(String filePath, boolean shared) {
-        scanBasic(Constants.FILE_TYPE_DOCUMENTS, filePath, getMimeType(filePath), shared);
+    private ContentValues scanDocument(String filePath, boolean shared) {
+        return scanBasic(Constants.FILE_TYPE_DOCUMENTS, filePath, getMimeType(filePath), shared);
     }
 
-    private void scanBasic(byte fileType, String filePath, String mime, boolean shared) {
+    private ContentValues scanBasic(byte fileType, String filePath, String mime, boolean shared) {
         File file = new File(filePath);
 
         String displayName = FilenameUtils.getBaseName(file.getName());
@@ -185,9 +206,7 @@ public class UniversalScanner {
         values.put(Columns.ALBUM, "");
         values.put(Columns.YEAR, "");
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
     private static String getMimeType(String filePath) {
@@ -101,6 +101,12 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
     private Date dateCreated;
 
     private boolean _notification;
+
+    /**
+     * The values of the last sample, to tell if they changed.
+     */
+    private Stats _stats;
+
     /**
      * Column index for the file name.
      */
@@ -373,23 +379,49 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
      * @implements DataLine interface
      */
     public void update() {
-        _status = initializer.getStateString();
-        _progress = initializer.getProgress();
-        _download = initializer.getBytesReceived();
-        _upload = initializer.getBytesSent();
-        _downloadSpeed = initializer.getDownloadSpeed();
-        _uploadSpeed = initializer.getUploadSpeed();
-        _timeLeft = initializer.getETA();
-        _seeds = initializer.getSeedsString();
-        _peers = initializer.getPeersString();
-        _shareRatio = initializer.getShareRatio();
-        _seedToPeerRatio = initializer.getSeedToPeerRatio();
-        _size = initializer.getSize();
-        dateCreated = initializer.getDateCreated();
-
-        if (getInitializeObject().isCompleted()) {
+        apply(sample());
+    }
+
+    /**
+     * Reads the current values of the download. It doesn't touch the line,
+     * so it can be called out of the event dispatch thread.
+     */
+    Stats sample() {
+        return new Stats(initializer);
+    }
+
+    /**
+     * Sets the values of the download sampled by {@link #sample()}, must be
+     * called in the event dispatch thread.
+     *
+     * @return true if any value changed since the last sample
+     */
+    boolean apply(Stats stats) {
+        boolean changed = !stats.equals(_stats);
+
+        if (changed) {
+            _stats = stats;
+
+            _status = stats.status;
+            _progress = stats.progress;
+            _download = stats.download;
+            _upload = stats.upload;
+            _downloadSpeed = stats.downloadSpeed;
+            _uploadSpeed = stats.uploadSpeed;
+            _timeLeft = stats.timeLeft;
+            _seeds = stats.seeds;
+            _peers = stats.peers;
+            _shareRatio = stats.shareRatio;
+            _seedToPeerRatio = stats.seedToPeerRatio;
+            _size = stats.size;
+            dateCreated = stats.dateCreated;
+        }
+
+        if (stats.completed) {
             showNotification();
         }
+
+        return changed;
     }
 
     private void showNotification() {
@@ -486,4 +518,61 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
     public boolean isClippable(int col) {
         return false;
     }
+
+    /**
+     * The values of a download at some point, the ones shown in the line.
+     */
+    static final class Stats {
+
+        final String status;
+        final int progress;
+        final long download;
+        final long upload;
+        final double downloadSpeed;
+        final double uploadSpeed;
+        final long timeLeft;
+        final String seeds;
+        final String peers;
+        final String shareRatio;
+        final String seedToPeerRatio;
+        final long size;
+        final Date dateCreated;
+        final boolean completed;
+
+        Stats(BTDownload d) {
+            status = d.getStateString();
+            progress = d.getProgress();
+            download = d.getBytesReceived();
+            upload = d.getBytesSent();
+            downloadSpeed = d.getDownloadSpeed();
+            uploadSpeed = d.getUploadSpeed();
+            timeLeft = d.getETA();
+            seeds = d.getSeedsString();
+            peers = d.getPeersString();
+            shareRatio = d.getShareRatio();
+            seedToPeerRatio = d.getSeedToPeerRatio();
+            size = d.getSize();
+            dateCreated = d.getDateCreated();
+            completed = d.isCompleted();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stats)) {
+                return false;
+            }
+            Stats s = (Stats) o;
+            return progress == s.progress && download == s.download && upload == s.upload && downloadSpeed == s.downloadSpeed && uploadSpeed == s.uploadSpeed && timeLeft == s.timeLeft && size == s.size && completed == s.completed && eq(status, s.status)
+                    && eq(seeds, s.seeds) && eq(peers, s.peers) && eq(shareRatio, s.shareRatio) && eq(seedToPeerRatio, s.seedToPeerRatio) && eq(dateCreated, s.dateCreated);
+        }
+
+        @Override
+        public int hashCode() {
+            return progress * 31 + (int) (download ^ (download >>> 32));
+        }
+
+        private static boolean eq(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
 }
\ No newline at end of file
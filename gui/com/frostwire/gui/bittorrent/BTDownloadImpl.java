@@ -172,17 +172,11 @@ public class BTDownloadImpl implements BTDownload {
         boolean started = state == DownloadManager.STATE_SEEDING || state == DownloadManager.STATE_DOWNLOADING;
         boolean hasScrape = lTotalPeers >= 0;
 
-        String tmp;
         if (started) {
-            tmp = hasScrape ? (lConnectedPeers > lTotalPeers ? "%1" : "%1 " + "/" + " %2") : "%1";
+            return hasScrape && lConnectedPeers <= lTotalPeers ? lConnectedPeers + " / " + totalPeers : String.valueOf(lConnectedPeers);
         } else {
-            tmp = hasScrape ? "%2" : "";
+            return hasScrape ? String.valueOf(totalPeers) : "";
         }
-
-        tmp = tmp.replaceAll("%1", String.valueOf(lConnectedPeers));
-        tmp = tmp.replaceAll("%2", String.valueOf(totalPeers));
-
-        return tmp;
     }
 
     public String getSeedsString() {
@@ -214,21 +208,13 @@ public class BTDownloadImpl implements BTDownload {
         int state = dm.getState();
         boolean started = (state == DownloadManager.STATE_SEEDING || state == DownloadManager.STATE_DOWNLOADING);
         boolean hasScrape = lTotalSeeds >= 0;
-        String tmp;
 
+        // plain concatenation, this runs for every download on every refresh
         if (started) {
-            tmp = hasScrape ? (lConnectedSeeds > lTotalSeeds ? "%1" : "%1 " + "/" + " %2") : "%1";
+            return hasScrape && lConnectedSeeds <= lTotalSeeds ? lConnectedSeeds + " / " + lTotalSeeds : String.valueOf(lConnectedSeeds);
         } else {
-            tmp = hasScrape ? "%2" : "";
+            return hasScrape ? String.valueOf(lTotalSeeds) : "";
         }
-        tmp = tmp.replaceAll("%1", String.valueOf(lConnectedSeeds));
-        String param2 = "?";
-        if (lTotalSeeds != -1) {
-            param2 = String.valueOf(lTotalSeeds);
-        }
-        tmp = tmp.replaceAll("%2", param2);
-
-        return tmp;
     }
 
     public boolean isDeleteTorrentWhenRemove() {
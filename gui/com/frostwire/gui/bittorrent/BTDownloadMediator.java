@@ -178,6 +178,7 @@ public final class BTDownloadMediator extends AbstractTableMediator<BTDownloadRo
         _seedingFilter = new SeedingFilter();
         DATA_MODEL = new BTDownloadRowFilteredModel(_seedingFilter);//new BTDownloadModel();
         TABLE = new LimeJTable(DATA_MODEL);
+        DATA_MODEL.setTable(TABLE);
         _downloadButtons = new BTDownloadButtons(this);
         BUTTON_ROW = _downloadButtons.getComponent();
 
@@ -1,9 +1,22 @@
 package com.frostwire.gui.bittorrent;
 
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JTable;
 
 import org.gudy.azureus2.core3.download.DownloadManager;
+import org.limewire.concurrent.ExecutorsHelper;
 
+import com.frostwire.gui.bittorrent.BTDownloadDataLine.Stats;
+import com.limegroup.gnutella.gui.GUIMediator;
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
 
 /**
@@ -17,14 +30,35 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
      */
     private static final long serialVersionUID = 8163563369069283107L;
 
+    /**
+     * Reads the values of the downloads out of the event dispatch thread.
+     */
+    private static final ExecutorService SAMPLER = ExecutorsHelper.newProcessingQueue("BTDownloadModel-Sampler");
+
     private HashSet<String> _hashDownloads;
 
+    /**
+     * True while a sample is read or applied, the refreshes in between are
+     * skipped instead of queued.
+     */
+    private final AtomicBoolean _sampling;
+
+    /**
+     * The table of the model, only its visible rows are repainted.
+     */
+    private JTable _table;
+
     /**
      * Initialize the model by setting the class of its DataLines.
      */
     BTDownloadModel() {
         super(BTDownloadDataLine.class);
         _hashDownloads = new HashSet<String>();
+        _sampling = new AtomicBoolean(false);
+    }
+
+    void setTable(JTable table) {
+        _table = table;
     }
 
     /**
@@ -72,28 +106,106 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
     }
 
     /**
-     * Over-ride the default refresh so that we can
-     * set the CLEAR_BUTTON as appropriate.
+     * Over-ride the default refresh so the values of the downloads are read
+     * in the background, then only the lines with new values are updated
+     * and only the visible ones repainted.
      */
     public Object refresh() {
+        if (!_sampling.compareAndSet(false, true)) {
+            return Boolean.TRUE;
+        }
+
+        final List<BTDownloadDataLine> lines = new ArrayList<BTDownloadDataLine>(_list);
+
+        try {
+            SAMPLER.execute(new Runnable() {
+                public void run() {
+                    final List<Stats> samples = new ArrayList<Stats>(lines.size());
+                    for (BTDownloadDataLine line : lines) {
+                        Stats stats = null;
+                        try {
+                            stats = line.sample();
+                        } catch (Throwable e) {
+                            // removed or not ready, next time
+                        }
+                        samples.add(stats);
+                    }
+
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            try {
+                                applySamples(lines, samples);
+                            } finally {
+                                _sampling.set(false);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (Exception e) {
+            _sampling.set(false);
+            return Boolean.FALSE;
+        }
+
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Applies the samples to the lines still in the model, and fires the
+     * updates of the visible rows that changed.
+     */
+    private void applySamples(List<BTDownloadDataLine> lines, List<Stats> samples) {
         try {
-            int size = getRowCount();
+            Map<BTDownloadDataLine, Integer> rows = new IdentityHashMap<BTDownloadDataLine, Integer>(_list.size());
+            for (int i = 0; i < _list.size(); i++) {
+                rows.put(_list.get(i), i);
+            }
 
-            for (int i = 0; i < size; i++) {
-                BTDownloadDataLine ud = get(i);
-                ud.update();
+            int first = 0;
+            int last = _list.size() - 1;
+            if (_table != null) {
+                Rectangle visible = _table.getVisibleRect();
+                first = Math.max(0, _table.rowAtPoint(visible.getLocation()));
+                int bottom = _table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+                last = bottom != -1 ? bottom : last;
             }
 
-            fireTableRowsUpdated(0, size);
+            int from = -1;
+            int to = -1;
+            boolean[] changed = new boolean[_list.size()];
+
+            for (int i = 0; i < lines.size(); i++) {
+                Integer row = rows.get(lines.get(i));
+                Stats stats = samples.get(i);
+                if (row == null || stats == null) {
+                    continue;
+                }
+                if (lines.get(i).apply(stats) && row >= first && row <= last) {
+                    changed[row] = true;
+                }
+            }
+
+            // one event per run of changed rows
+            for (int row = 0; row < changed.length; row++) {
+                if (changed[row]) {
+                    if (from == -1) {
+                        from = row;
+                    }
+                    to = row;
+                } else if (from != -1) {
+                    fireTableRowsUpdated(from, to);
+                    from = -1;
+                }
+            }
+            if (from != -1) {
+                fireTableRowsUpdated(from, to);
+            }
         } catch (Exception e) {
             System.out.println("ATENTION: Send the following output to the FrostWire Development team.");
             System.out.println("===============================START COPY & PASTE=======================================");
             e.printStackTrace();
             System.out.println("===============================END COPY & PASTE=======================================");
-            return Boolean.FALSE;
         }
-
-        return Boolean.TRUE;
     }
 
     @Override
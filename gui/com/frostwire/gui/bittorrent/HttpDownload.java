@@ -37,6 +37,7 @@ import com.frostwire.util.HttpClient.HttpClientListener;
 import com.frostwire.util.HttpClient.RangeNotSupportedException;
 import com.frostwire.util.HttpClientFactory;
 import com.frostwire.util.HttpClientType;
+import com.frostwire.util.HttpSegments;
 import com.limegroup.gnutella.gui.I18n;
 import com.limegroup.gnutella.settings.SharingSettings;
 
@@ -64,6 +65,10 @@ public class HttpDownload implements BTDownload {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    /** Files of at least this size are downloaded in parallel segments */
+    private static final long MIN_SEGMENTED_SIZE = 16 * 1024 * 1024;
+    private static final int NUM_SEGMENTS = 4;
+
     private final String url;
     private final String title;
     private final String saveAs;
@@ -92,6 +97,8 @@ public class HttpDownload implements BTDownload {
     private int md5CheckingProgress;
 
     private boolean isResumable;
+    // a segment got the whole file, don't segment this url again
+    private volatile boolean rangesUnsupported;
 
     public HttpDownload(String theURL, String theTitle, String saveFileAs, long fileSize, String md5hash, boolean shouldResume, boolean deleteFileWhenTransferCancelled) {
         url = theURL;
@@ -315,12 +322,21 @@ public class HttpDownload implements BTDownload {
                     }
 
                     if (resume) {
-                        if (incompleteFile.exists()) {
+                        long segmented = HttpSegments.getDownloaded(incompleteFile);
+                        if (segmented >= 0) {
+                            bytesReceived = segmented;
+                        } else if (incompleteFile.exists()) {
                             bytesReceived = incompleteFile.length();
                         }
+                    } else {
+                        bytesReceived = 0;
                     }
 
-                    httpClient.save(url, incompleteFile, resume);
+                    if (size >= MIN_SEGMENTED_SIZE && !rangesUnsupported) {
+                        httpClient.saveSegmented(url, incompleteFile, resume, NUM_SEGMENTS);
+                    } else {
+                        httpClient.save(url, incompleteFile, resume);
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                     httpClientListener.onError(httpClient, e);
@@ -340,6 +356,7 @@ public class HttpDownload implements BTDownload {
 
     private void cleanupIncomplete() {
         cleanupFile(incompleteFile);
+        HttpSegments.delete(incompleteFile);
     }
 
     private void cleanupComplete() {
@@ -418,6 +435,8 @@ public class HttpDownload implements BTDownload {
         public void onError(HttpClient client, Exception e) {
             if (e instanceof RangeNotSupportedException) {
                 isResumable = false;
+                rangesUnsupported = true;
+                HttpSegments.delete(incompleteFile);
                 start(false);
             } else {
                 state = STATE_ERROR;
@@ -0,0 +1,295 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.bittorrent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.gudy.azureus2.core3.disk.DiskManagerFileInfo;
+import org.gudy.azureus2.core3.download.DownloadManager;
+import org.gudy.azureus2.core3.download.impl.DownloadManagerAdapter;
+import org.gudy.azureus2.core3.global.GlobalManagerAdapter;
+
+import com.frostwire.AzureusStarter;
+
+/**
+ * The files of the downloads that are incomplete or skipped, the files the
+ * library must not show or share.
+ *
+ * The files of a download are listed again only when the download is added,
+ * changes state, completes or gets a file skipped or unskipped. The files of
+ * the downloads transferring data complete without events, so those are
+ * listed again if they are older than {@link #ACTIVE_REFRESH_MILLIS} when
+ * the index is read. Completed, paused, stopped or queued downloads cost
+ * nothing, their files only change with a state change.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class IgnorableFilesIndex {
+
+    private static final Log LOG = LogFactory.getLog(IgnorableFilesIndex.class);
+
+    private static final long ACTIVE_REFRESH_MILLIS = 5000;
+
+    private static final IgnorableFilesIndex instance = new IgnorableFilesIndex();
+
+    public static IgnorableFilesIndex instance() {
+        return instance;
+    }
+
+    private final Map<DownloadManager, Entry> entries;
+    // file -> number of downloads ignoring it
+    private final Map<File, Integer> counts;
+    private final DownloadManagerAdapter downloadListener;
+
+    private boolean started;
+    private Set<File> snapshot;
+
+    private IgnorableFilesIndex() {
+        this.entries = new IdentityHashMap<DownloadManager, Entry>();
+        this.counts = new HashMap<File, Integer>();
+        this.snapshot = Collections.emptySet();
+
+        this.downloadListener = new DownloadManagerAdapter() {
+            @Override
+            public void stateChanged(DownloadManager manager, int state) {
+                update(manager);
+            }
+
+            @Override
+            public void downloadComplete(DownloadManager manager) {
+                update(manager);
+            }
+
+            @Override
+            public void completionChanged(DownloadManager manager, boolean bCompleted) {
+                update(manager);
+            }
+
+            @Override
+            public void filePriorityChanged(DownloadManager download, DiskManagerFileInfo file) {
+                update(download);
+            }
+        };
+    }
+
+    /**
+     * Returns true if the file is incomplete or skipped.
+     */
+    public boolean contains(File file) {
+        if (!start()) {
+            return false;
+        }
+
+        refreshActive();
+
+        synchronized (this) {
+            return counts.containsKey(file);
+        }
+    }
+
+    /**
+     * Returns the ignorable files, an unmodifiable set that does not change.
+     * The same set is returned while the downloads don't change.
+     */
+    public Set<File> snapshot() {
+        if (!start()) {
+            return Collections.emptySet();
+        }
+
+        refreshActive();
+
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = Collections.unmodifiableSet(new HashSet<File>(counts.keySet()));
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Registers with the global manager the first time the index is used
+     * after the core is started, the downloads already there are reported
+     * right away.
+     *
+     * @return false if the core is not started yet
+     */
+    private boolean start() {
+        synchronized (this) {
+            if (started) {
+                return true;
+            }
+            if (!AzureusStarter.isAzureusCoreStarted()) {
+                return false;
+            }
+            started = true;
+        }
+
+        AzureusStarter.getAzureusCore().getGlobalManager().addListener(new GlobalManagerAdapter() {
+            @Override
+            public void downloadManagerAdded(DownloadManager dm) {
+                register(dm);
+                dm.addListener(downloadListener);
+                update(dm);
+            }
+
+            @Override
+            public void downloadManagerRemoved(DownloadManager dm) {
+                dm.removeListener(downloadListener);
+                remove(dm);
+            }
+        });
+
+        return true;
+    }
+
+    private void refreshActive() {
+        List<DownloadManager> stale = null;
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Map.Entry<DownloadManager, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.active && now - entry.updated > ACTIVE_REFRESH_MILLIS) {
+                    if (stale == null) {
+                        stale = new ArrayList<DownloadManager>();
+                    }
+                    stale.add(e.getKey());
+                }
+            }
+        }
+
+        if (stale != null) {
+            for (DownloadManager dm : stale) {
+                update(dm);
+            }
+        }
+    }
+
+    /**
+     * Lists the files of the download, out of the lock of the index since
+     * the download has its own locks, then applies the difference.
+     */
+    private void update(DownloadManager dm) {
+        Set<File> files = new HashSet<File>();
+        boolean incomplete = false;
+
+        try {
+            for (DiskManagerFileInfo fileInfo : dm.getDiskManagerFileInfoSet().getFiles()) {
+                try {
+                    if (fileInfo.isSkipped()) {
+                        files.add(fileInfo.getFile(false));
+                    } else if (TorrentUtil.getDownloadPercent(fileInfo) < 100) {
+                        files.add(fileInfo.getFile(false));
+                        incomplete = true;
+                    }
+                } catch (Throwable e) {
+                    LOG.error("Error getting file information", e);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.error("Error listing the files of download", e);
+            return;
+        }
+
+        boolean active = incomplete && isTransferring(dm);
+
+        synchronized (this) {
+            Entry old = entries.get(dm);
+            if (old == null) {
+                return; // removed meanwhile
+            }
+
+            if (!old.files.equals(files)) {
+                for (File f : old.files) {
+                    if (!files.contains(f)) {
+                        decrement(f);
+                    }
+                }
+                for (File f : files) {
+                    if (!old.files.contains(f)) {
+                        increment(f);
+                    }
+                }
+                snapshot = null;
+            }
+
+            entries.put(dm, new Entry(files, active, System.currentTimeMillis()));
+        }
+    }
+
+    private static boolean isTransferring(DownloadManager dm) {
+        int state = dm.getState();
+        return state == DownloadManager.STATE_DOWNLOADING || state == DownloadManager.STATE_SEEDING;
+    }
+
+    private synchronized void register(DownloadManager dm) {
+        if (!entries.containsKey(dm)) {
+            entries.put(dm, new Entry(Collections.<File> emptySet(), false, 0));
+        }
+    }
+
+    private synchronized void remove(DownloadManager dm) {
+        Entry old = entries.remove(dm);
+        if (old != null) {
+            for (File f : old.files) {
+                decrement(f);
+            }
+            snapshot = null;
+        }
+    }
+
+    private void increment(File f) {
+        Integer n = counts.get(f);
+        counts.put(f, n != null ? n + 1 : 1);
+    }
+
+    private void decrement(File f) {
+        Integer n = counts.get(f);
+        if (n == null || n <= 1) {
+            counts.remove(f);
+        } else {
+            counts.put(f, n - 1);
+        }
+    }
+
+    private static final class Entry {
+
+        public final Set<File> files;
+        public final boolean active;
+        public final long updated;
+
+        public Entry(Set<File> files, boolean active, long updated) {
+            this.files = files;
+            this.active = active;
+            this.updated = updated;
+        }
+    }
+}
@@ -665,9 +665,11 @@ public final class TorrentUtil {
         return hex;
     }
 
+    /**
+     * The incomplete and skipped files of all the downloads, an unmodifiable
+     * set maintained by the download events instead of listing every file.
+     */
     public static Set<File> getIgnorableFiles() {
-        Set<File> set = TorrentUtil.getIncompleteFiles();
-        set.addAll(TorrentUtil.getSkipedFiles());
-        return set;
+        return IgnorableFilesIndex.instance().snapshot();
     }
 }
@@ -18,8 +18,16 @@
 
 package com.frostwire.gui.httpserver;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
 
@@ -32,6 +40,13 @@ import com.frostwire.util.JsonUtils;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Lists the shared files of a given type, optionally paged with the
+ * <code>offset</code> and <code>limit</code> parameters.
+ * 
+ * The full listing of each type is kept gzipped in memory until the
+ * shared files change, and the responses carry an ETag so that a peer
+ * browsing an unchanged library gets a 304.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -40,13 +55,27 @@ class BrowseHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(BrowseHandler.class.getName());
 
+    /**
+     * The change count restarts with the application, this makes
+     * the ETags of different sessions different.
+     */
+    private static final String SESSION_TAG = Long.toHexString(System.currentTimeMillis());
+
+    private final Map<Byte, CachedResponse> cache;
+
+    public BrowseHandler() {
+        this.cache = new HashMap<Byte, CachedResponse>();
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
-        GZIPOutputStream os = null;
+        OutputStream os = null;
 
         byte type = -1;
+        int offset = 0;
+        int limit = -1;
 
         try {
 
@@ -56,23 +85,47 @@ class BrowseHandler extends AbstractHandler {
                 if (item.getName().equals("type")) {
                     type = Byte.parseByte(item.getValue());
                 }
+                if (item.getName().equals("offset")) {
+                    offset = Integer.parseInt(item.getValue());
+                }
+                if (item.getName().equals("limit")) {
+                    limit = Integer.parseInt(item.getValue());
+                }
             }
 
-            if (type == -1) {
+            if (type == -1 || offset < 0) {
                 exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            long changeCount = Librarian.instance().getSharedFilesChangeCount();
+            String etag = "\"" + SESSION_TAG + "-" + changeCount + "-" + type + "-" + offset + "-" + limit + "\"";
+
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
-            exchange.sendResponseHeaders(Code.HTTP_OK, 0);
 
-            os = new GZIPOutputStream(exchange.getResponseBody());
+            if (offset == 0 && limit < 0) {
+                byte[] data = getCachedResponse(type, changeCount);
+
+                exchange.sendResponseHeaders(Code.HTTP_OK, data.length);
+
+                os = exchange.getResponseBody();
+                os.write(data);
+            } else {
+                List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(type, offset, limit);
 
-            os.write(response.getBytes("UTF-8"));
-            os.finish();
+                exchange.sendResponseHeaders(Code.HTTP_OK, 0);
+
+                os = exchange.getResponseBody();
+                writeGzippedResponse(fileDescriptors, os);
+            }
 
         } catch (IOException e) {
             LOG.warning("Error browsing files type=" + type);
@@ -85,16 +138,71 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
+    /**
+     * Returns the gzipped listing of all the shared files of the type, building it
+     * again only if the shared files changed since the last time. The files gone
+     * when the listing is built are left out, the sweeper of the librarian removes
+     * their rows later.
+     */
+    private byte[] getCachedResponse(byte fileType, long changeCount) throws IOException {
+        synchronized (cache) {
+            CachedResponse response = cache.get(fileType);
+
+            if (response == null || response.changeCount != changeCount) {
+                List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
+
+                Iterator<FileDescriptor> it = fileDescriptors.iterator();
+                while (it.hasNext()) {
+                    if (!new File(it.next().filePath).exists()) {
+                        it.remove();
+                    }
+                }
+
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                writeGzippedResponse(fileDescriptors, baos);
+
+                response = new CachedResponse(changeCount, baos.toByteArray());
+                cache.put(fileType, response);
+            }
+
+            return response.data;
+        }
+    }
+
+    /**
+     * Writes the JSON of a {@link com.frostwire.gui.library.FileDescriptorList} one
+     * file at a time, without building the whole JSON string in memory.
+     */
+    private static void writeGzippedResponse(List<FileDescriptor> fileDescriptors, OutputStream os) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(os);
+        Writer writer = new OutputStreamWriter(gzip, "UTF-8");
 
-        FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+        writer.write("{\"files\":[");
 
-        return JsonUtils.toJson(list);
+        boolean first = true;
+        for (FileDescriptor fd : fileDescriptors) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+
+            JsonUtils.toJson(fd, writer);
+        }
+
+        writer.write("]}");
+
+        writer.flush();
+        gzip.finish();
     }
 
-    static final class FileDescriptorList {
-        public List<FileDescriptor> files;
+    private static final class CachedResponse {
+
+        public final long changeCount;
+        public final byte[] data;
+
+        public CachedResponse(long changeCount, byte[] data) {
+            this.changeCount = changeCount;
+            this.data = data;
+        }
     }
 }
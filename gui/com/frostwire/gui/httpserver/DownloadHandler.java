@@ -23,20 +23,37 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.limewire.concurrent.ExecutorsHelper;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
 import com.frostwire.gui.bittorrent.BTDownloadMediator;
 import com.frostwire.gui.transfers.PeerHttpUpload;
+import com.limegroup.gnutella.settings.SharingSettings;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Serves the shared files, supports single byte ranges (and If-Range)
+ * so the peers can resume interrupted transfers.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -45,18 +62,42 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class.getName());
 
+    /**
+     * Hard limit of threads serving files, the actual number of concurrent
+     * uploads is given by {@link SharingSettings#MAX_HTTP_UPLOADS}.
+     */
+    private static final int MAX_UPLOAD_WORKERS = 16;
+
+    private static final int TRANSFER_CHUNK_SIZE = 256 * 1024;
+
+    static final long[] RANGE_NOT_SATISFIABLE = new long[0];
+
+    private static final ExecutorService uploadExecutor = ExecutorsHelper.newFixedSizeThreadPool(MAX_UPLOAD_WORKERS, "DownloadHandler");
+    private static final AtomicInteger activeUploads = new AtomicInteger();
+
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
-        new Thread(new Runnable() {
+        if (!acquireUploadSlot()) {
+            try {
+                sendBusyResponse(exchange);
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+
+        uploadExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 try {
                     internalHandler(exchange);
                 } catch (IOException e) {
                     LOG.log(Level.WARNING, "DownloadHandler async handle error", e);
+                } finally {
+                    activeUploads.decrementAndGet();
                 }
             }
-        }).start();
+        });
     }
     
     public void internalHandler(HttpExchange exchange) throws IOException {
@@ -88,49 +129,73 @@ class DownloadHandler extends AbstractHandler {
                 return;
             }
 
-            //if (TransferManager.instance().getActiveUploads() >= ConfigurationManager.instance().maxConcurrentUploads()) {
-            //    sendBusyResponse(exchange);
-            //    return;
-            //}
-
             FileDescriptor fd = Librarian.instance().getSharedFileDescriptor(type, id);
             if (fd == null) {
                 throw new IOException("There is no such file shared");
             }
 
+            File file = new File(fd.filePath);
+            long length = file.length();
+            long lastModified = file.lastModified();
+            String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Content-Type", fd.mime);
+            headers.add("Accept-Ranges", "bytes");
+            headers.add("ETag", etag);
+            headers.add("Last-Modified", createHttpDateFormat().format(new Date(lastModified)));
+
+            int code = Code.HTTP_OK;
+            long start = 0;
+            long end = length - 1;
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && isIfRangeSatisfied(exchange.getRequestHeaders().getFirst("If-Range"), etag, lastModified)) {
+                long[] r = parseRange(range, length);
+                if (r == RANGE_NOT_SATISFIABLE) {
+                    headers.add("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                    return;
+                }
+                if (r != null) {
+                    code = Code.HTTP_PARTIAL;
+                    start = r[0];
+                    end = r[1];
+                    headers.add("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
             //upload = TransferManager.instance().upload(fd);
             upload = BTDownloadMediator.instance().upload(fd);
+            upload.setOffset(start);
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            
-            File file = new File(fd.filePath);
-            
-            exchange.sendResponseHeaders(Code.HTTP_OK, file.length());
+            long remaining = end - start + 1;
+
+            exchange.sendResponseHeaders(code, remaining > 0 ? remaining : -1);
 
             os = exchange.getResponseBody();
 
+            // the bundled server exposes the response body as a channel, this
+            // avoids the copy of the file through a heap buffer
+            WritableByteChannel out = os instanceof WritableByteChannel ? (WritableByteChannel) os : Channels.newChannel(os);
+
             fis = new FileInputStream(file);
+            FileChannel fc = fis.getChannel();
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+            long position = start;
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
-                upload.addBytesSent(n);
-                
-                if (upload.isCanceled()) {
-                    try {
-                        throw new IOException("Upload cancelled");
-                    } finally {
-                        os.close();
-                    }
+            while (remaining > 0) {
+                long n = fc.transferTo(position, Math.min(remaining, TRANSFER_CHUNK_SIZE), out);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of file, file changed while uploading");
                 }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
+
+                position += n;
+                remaining -= n;
+                upload.addBytesSent((int) n);
+
+                if (upload.isCanceled()) {
+                    throw new IOException("Upload cancelled");
                 }
             }
 
@@ -153,6 +218,115 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
+    private static boolean acquireUploadSlot() {
+        int max = Math.min(SharingSettings.MAX_HTTP_UPLOADS.getValue(), MAX_UPLOAD_WORKERS);
+
+        for (;;) {
+            int n = activeUploads.get();
+            if (n >= max) {
+                return false;
+            }
+            if (activeUploads.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the inclusive {start, end} of a single byte range, <code>null</code>
+     * if the header should be ignored (malformed or multiple ranges) or
+     * {@link #RANGE_NOT_SATISFIABLE}.
+     */
+    static long[] parseRange(String value, long length) {
+        if (!value.startsWith("bytes=")) {
+            return null;
+        }
+
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1 || spec.indexOf(',') != -1) {
+            return null;
+        }
+
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+
+        // parseLong would take signs
+        if (!isDigits(first) || !isDigits(last)) {
+            return null;
+        }
+
+        long start;
+        long end;
+
+        try {
+            if (first.length() == 0) {
+                if (last.length() == 0) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return RANGE_NOT_SATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.length() == 0) {
+                    end = length - 1;
+                } else {
+                    end = Long.parseLong(last);
+                    if (end < start) {
+                        return null;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (start >= length) {
+            return RANGE_NOT_SATISFIABLE;
+        }
+
+        return new long[] { start, end };
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isIfRangeSatisfied(String value, String etag, long lastModified) {
+        if (value == null) {
+            return true;
+        }
+
+        value = value.trim();
+
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+
+        try {
+            return createHttpDateFormat().parse(value).getTime() / 1000 == lastModified / 1000;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    private static DateFormat createHttpDateFormat() {
+        DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return df;
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
@@ -163,8 +337,8 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
-    //    private void sendBusyResponse(HttpExchange exchange) throws IOException {
-    //        exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
-    //        exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, 0);
-    //    }
+    private void sendBusyResponse(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
+        exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, -1);
+    }
 }
@@ -53,6 +53,11 @@ abstract class AbstractLibraryTableMediator<T extends DataLineModel<E, I>, E ext
     
     private static final LibraryActionsRenderer ACTION_RENDERER = new LibraryActionsRenderer();
 
+    /**
+     * Rows after the selection with their cover art decoded in advance.
+     */
+    private static final int COVER_ART_PREFETCH = 5;
+
     protected Action SEND_TO_FRIEND_ACTION;
     protected Action OPTIONS_ACTION;
 
@@ -293,6 +298,20 @@ abstract class AbstractLibraryTableMediator<T extends DataLineModel<E, I>, E ext
 
     protected abstract MediaSource createMediaSource(E line);
 
+    abstract File getFile(int row);
+
+    /**
+     * Decodes in the background the cover art of the rows after the
+     * selected one, so it's ready when the selection moves down.
+     */
+    protected void prefetchCoverArt(int row) {
+        List<File> files = new ArrayList<File>(COVER_ART_PREFETCH);
+        for (int i = row + 1; i <= row + COVER_ART_PREFETCH && i < DATA_MODEL.getRowCount(); i++) {
+            files.add(getFile(i));
+        }
+        CoverArtCache.instance().prefetch(files);
+    }
+
     @Override
     public void removeSelection() {
         super.removeSelection();
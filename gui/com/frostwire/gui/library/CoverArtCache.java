@@ -0,0 +1,310 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.util.CommonUtils;
+
+import com.frostwire.gui.library.tags.TagsReader;
+
+/**
+ * Cache of the cover art thumbnails of the library files.
+ *
+ * The embedded art is read and scaled down once by a background decoder,
+ * then kept on disk as a small jpeg and in memory behind soft references,
+ * both keyed by the file path and modification date. The last requested
+ * file is decoded first, so the art of the current selection is not
+ * queued behind the files scrolled over.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class CoverArtCache {
+
+    private static final Log LOG = LogFactory.getLog(CoverArtCache.class);
+
+    /**
+     * Side of the thumbnails, the size of the cover art panel.
+     */
+    public static final int THUMBNAIL_SIZE = 350;
+
+    private static final int MEMORY_CACHE_SIZE = 200;
+
+    private static final long MAX_DISK_BYTES = 50 * 1024 * 1024;
+
+    private static final String CACHE_DIR_NAME = "coverart";
+
+    /**
+     * In memory for the files without art, so their tags are not read again.
+     */
+    private static final BufferedImage NO_ART = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    private static final CoverArtCache instance = new CoverArtCache();
+
+    public static CoverArtCache instance() {
+        return instance;
+    }
+
+    private final File cacheDir;
+    private final Map<String, SoftReference<BufferedImage>> memory;
+    private final Map<String, List<OnLoadedListener>> pending;
+    private final BlockingDeque<File> requests;
+
+    private long diskBytes;
+
+    private CoverArtCache() {
+        this.cacheDir = new File(CommonUtils.getUserSettingsDir(), CACHE_DIR_NAME);
+        this.memory = new LinkedHashMap<String, SoftReference<BufferedImage>>(MEMORY_CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = -2361825338547212016L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SoftReference<BufferedImage>> eldest) {
+                return size() > MEMORY_CACHE_SIZE;
+            }
+        };
+        this.pending = new HashMap<String, List<OnLoadedListener>>();
+        this.requests = new LinkedBlockingDeque<File>();
+        this.diskBytes = -1;
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                decodeLoop();
+            }
+        }, "CoverArtCache-Decoder");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Passes the thumbnail of the file to the listener, right away if it's
+     * in memory, from the decoder thread otherwise. The image passed to the
+     * listener is null if the file has no art.
+     */
+    public void getThumbnail(File file, OnLoadedListener listener) {
+        String key = getKey(file);
+
+        BufferedImage image;
+        synchronized (memory) {
+            SoftReference<BufferedImage> ref = memory.get(key);
+            image = ref != null ? ref.get() : null;
+        }
+        if (image != null) {
+            listener.onLoaded(file, image != NO_ART ? image : null);
+            return;
+        }
+
+        synchronized (pending) {
+            List<OnLoadedListener> listeners = pending.get(key);
+            if (listeners == null) {
+                listeners = new ArrayList<OnLoadedListener>(1);
+                pending.put(key, listeners);
+            }
+            listeners.add(listener);
+        }
+
+        // the most recent request first
+        requests.remove(file);
+        requests.offerFirst(file);
+    }
+
+    /**
+     * Decodes the thumbnails of the files in the background, after the
+     * files already requested.
+     */
+    public void prefetch(List<File> files) {
+        for (File file : files) {
+            String key = getKey(file);
+
+            synchronized (memory) {
+                SoftReference<BufferedImage> ref = memory.get(key);
+                if (ref != null && ref.get() != null) {
+                    continue;
+                }
+            }
+
+            synchronized (pending) {
+                if (pending.containsKey(key)) {
+                    continue;
+                }
+                pending.put(key, new ArrayList<OnLoadedListener>(1));
+            }
+
+            requests.offerLast(file);
+        }
+    }
+
+    private void decodeLoop() {
+        while (true) {
+            File file;
+            try {
+                file = requests.takeFirst();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            String key = getKey(file);
+            BufferedImage image = null;
+
+            try {
+                image = load(file, key);
+            } catch (Throwable e) {
+                LOG.warn("Error loading cover art of: " + file, e);
+            }
+
+            synchronized (memory) {
+                memory.put(key, new SoftReference<BufferedImage>(image != null ? image : NO_ART));
+            }
+
+            List<OnLoadedListener> listeners;
+            synchronized (pending) {
+                listeners = pending.remove(key);
+            }
+
+            if (listeners != null) {
+                for (OnLoadedListener l : listeners) {
+                    try {
+                        l.onLoaded(file, image);
+                    } catch (Throwable e) {
+                        LOG.warn("Error notifying cover art of: " + file, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the thumbnail from disk, or from the tags of the file storing
+     * it on disk. An empty file on disk means the file has no art.
+     */
+    private BufferedImage load(File file, String key) throws Exception {
+        File cached = new File(cacheDir, digest(key) + ".jpg");
+
+        if (cached.exists()) {
+            cached.setLastModified(System.currentTimeMillis());
+            return cached.length() > 0 ? ImageIO.read(cached) : null;
+        }
+
+        BufferedImage art = new TagsReader(file).getArtwork();
+        BufferedImage thumbnail = art != null ? scale(art) : null;
+
+        if (cacheDir.exists() || cacheDir.mkdirs()) {
+            if (thumbnail != null) {
+                ImageIO.write(thumbnail, "jpg", cached);
+            } else {
+                cached.createNewFile();
+            }
+            trimDisk(cached.length());
+        }
+
+        return thumbnail;
+    }
+
+    /**
+     * Removes the least recently used thumbnails when the disk cache is
+     * over its size.
+     */
+    private void trimDisk(long added) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            for (File f : files) {
+                diskBytes += f.length();
+            }
+        } else {
+            diskBytes += added;
+        }
+
+        if (diskBytes <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File o1, File o2) {
+                long d = o1.lastModified() - o2.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+
+        // down to 3/4 so it does not trim on every write
+        for (int i = 0; i < files.length && diskBytes > MAX_DISK_BYTES * 3 / 4; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        double ratio = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(w, h));
+        int sw = Math.max(1, (int) (w * ratio));
+        int sh = Math.max(1, (int) (h * ratio));
+
+        BufferedImage thumbnail = new BufferedImage(sw, sh, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = thumbnail.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2.drawImage(image, 0, 0, sw, sh, null);
+        g2.dispose();
+
+        return thumbnail;
+    }
+
+    private static String getKey(File file) {
+        return file.getAbsolutePath() + ":" + file.lastModified();
+    }
+
+    private static String digest(String key) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public interface OnLoadedListener {
+        public void onLoaded(File file, BufferedImage image);
+    }
+}
@@ -30,7 +30,6 @@ import java.io.File;
 
 import javax.swing.JPanel;
 
-import com.frostwire.gui.library.tags.TagsReader;
 import com.limegroup.gnutella.gui.GUIMediator;
 
 /**
@@ -44,7 +43,7 @@ public final class LibraryCoverArt extends JPanel {
     private final Image defaultCoverArt;
 
     private Image coverArtImage;
-    private File file;
+    private volatile File file;
 
     public LibraryCoverArt() {
         background = new BufferedImage(350, 350, BufferedImage.TYPE_INT_ARGB);
@@ -59,7 +58,7 @@ public final class LibraryCoverArt extends JPanel {
     }
 
     /**
-     * Async
+     * Async, the thumbnail comes from the cover art cache.
      * @param file
      */
     public void setFile(final File file) {
@@ -67,26 +66,24 @@ public final class LibraryCoverArt extends JPanel {
             return;
         }
         this.file = file;
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                Image image = retrieveImage(file);
-                if (file != null && file.equals(LibraryCoverArt.this.file)) {
+
+        if (file == null) {
+            setPrivateImage(defaultCoverArt);
+            return;
+        }
+
+        CoverArtCache.instance().getThumbnail(file, new CoverArtCache.OnLoadedListener() {
+            public void onLoaded(File f, BufferedImage image) {
+                if (f.equals(LibraryCoverArt.this.file)) {
                     setPrivateImage(image);
                 }
             }
-        }, "Cover Art extract");
-        t.setDaemon(true);
-        t.start();
+        });
     }
 
     public void setDefault() {
         this.file = null;
-        new Thread(new Runnable() {
-            public void run() {
-                Image image = retrieveImage(file);
-                setPrivateImage(image);
-            }
-        }).start();
+        setPrivateImage(defaultCoverArt);
     }
 
     @Override
@@ -95,20 +92,6 @@ public final class LibraryCoverArt extends JPanel {
         g.drawImage(background, 0, 0, null);
     }
 
-    /**
-     * Synchronous.
-     * @param file
-     * @return
-     */
-    private Image retrieveImage(File file) {
-        if (file == null) {
-            return defaultCoverArt;
-        }
-        Image image = new TagsReader(file).getArtwork();
-
-        return image;
-    }
-
     private void setPrivateImage(Image image) {
         coverArtImage = image;
 
@@ -0,0 +1,615 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.limewire.collection.CharSequenceKeyAnalyzer;
+import org.limewire.collection.PatriciaTrie;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.CommonUtils;
+import org.limewire.util.FileUtils;
+
+/**
+ * Token index of the files in the library folders, used by the library search.
+ *
+ * Files and directories are indexed by the normalized tokens of their names (plus
+ * the tags reported by the scanner for the files). A file matches a query if every
+ * keyword is a prefix of a token of the file or of one of its parent directories.
+ *
+ * The listing of every directory is saved to disk with its last modified time, so
+ * a refresh only lists again the directories that changed. The listings are never
+ * modified, only replaced, so the files are collected without holding the lock of
+ * the index.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryFilesIndex {
+
+    private static final Logger LOG = Logger.getLogger(LibraryFilesIndex.class.getName());
+
+    private static final String INDEX_FILE_NAME = "library.idx";
+
+    private static final long REFRESH_INTERVAL_MILLIS = 30 * 1000;
+
+    private static final String[] EMPTY_ARRAY = new String[0];
+
+    private static final LibraryFilesIndex instance = new LibraryFilesIndex();
+
+    public static LibraryFilesIndex instance() {
+        return instance;
+    }
+
+    private final File indexFile;
+    private final ExecutorService refreshExec;
+
+    // directory path -> listing, this and the tags are what is saved to disk
+    private Map<String, DirectoryEntry> directories;
+    // file path -> tag tokens
+    private HashMap<String, String[]> tags;
+    // token -> paths of files and directories
+    private final PatriciaTrie<String, Set<String>> trie;
+
+    private final Map<String, Long> refreshTimes;
+    private final Set<String> pendingRefreshes;
+    // root path -> callbacks waiting for the first walk of the root
+    private final Map<String, List<Runnable>> firstWalks;
+
+    private boolean loaded;
+    private boolean dirty;
+
+    private LibraryFilesIndex() {
+        this.indexFile = new File(CommonUtils.getUserSettingsDir(), INDEX_FILE_NAME);
+        this.refreshExec = ExecutorsHelper.newProcessingQueue("LibraryFilesIndex");
+
+        this.directories = new ConcurrentHashMap<String, DirectoryEntry>();
+        this.tags = new HashMap<String, String[]>();
+        this.trie = new PatriciaTrie<String, Set<String>>(new CharSequenceKeyAnalyzer());
+
+        this.refreshTimes = new HashMap<String, Long>();
+        this.pendingRefreshes = Collections.synchronizedSet(new HashSet<String>());
+        this.firstWalks = new HashMap<String, List<Runnable>>();
+    }
+
+    /**
+     * Returns the files under <code>root</code> matching <code>query</code>, a query
+     * of "." returns all the files.
+     *
+     * The first time a root is searched it is walked in the background, the search
+     * returns no files and <code>onIndexed</code> is called once the walk is done.
+     * After that the search is answered from memory and the root is refreshed in
+     * the background.
+     */
+    public List<File> search(final File root, String query, Set<File> excludedDirs, Runnable onIndexed) {
+        final String rootPath = root.getAbsolutePath();
+
+        boolean walk = false;
+
+        synchronized (this) {
+            load();
+
+            List<Runnable> waiting = firstWalks.get(rootPath);
+            if (waiting == null && !directories.containsKey(rootPath)) {
+                waiting = new ArrayList<Runnable>();
+                firstWalks.put(rootPath, waiting);
+                walk = true;
+            }
+            if (waiting != null) {
+                if (onIndexed != null) {
+                    waiting.add(onIndexed);
+                }
+                if (!walk) {
+                    return new ArrayList<File>();
+                }
+            }
+        }
+
+        if (walk) {
+            final Set<File> dirs = new HashSet<File>(excludedDirs);
+
+            refreshExec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<Runnable> callbacks;
+                    boolean indexed;
+                    try {
+                        refresh(root, dirs);
+                    } finally {
+                        synchronized (LibraryFilesIndex.this) {
+                            callbacks = firstWalks.remove(rootPath);
+                            indexed = directories.containsKey(rootPath);
+                        }
+                    }
+
+                    if (!indexed) {
+                        return; // failed, the next search walks it again
+                    }
+
+                    for (Runnable r : callbacks) {
+                        try {
+                            r.run();
+                        } catch (Throwable e) {
+                            LOG.log(Level.WARNING, "Error notifying the index of " + rootPath, e);
+                        }
+                    }
+                }
+            });
+
+            return new ArrayList<File>();
+        }
+
+        requestRefresh(root, excludedDirs);
+
+        if (query.equals(".")) {
+            List<File> result = new ArrayList<File>();
+            collectFiles(rootPath, excludedDirs, result);
+            return result;
+        }
+
+        return find(rootPath, tokenize(query), excludedDirs);
+    }
+
+    /**
+     * Adds the tags of a file to its tokens, called by the scanner once the tags are read.
+     */
+    public void setTags(String filePath, String... values) {
+        List<String> tokens = new ArrayList<String>();
+        for (String value : values) {
+            if (value != null) {
+                tokens.addAll(tokenize(value));
+            }
+        }
+
+        synchronized (this) {
+            load();
+
+            String[] old = tags.remove(filePath);
+            if (old != null) {
+                removeTokens(filePath, old);
+            }
+
+            // a file out of the library folders is never listed, nor its tags removed
+            if (tokens.size() > 0 && isListed(filePath)) {
+                String[] arr = tokens.toArray(new String[0]);
+                tags.put(filePath, arr);
+                addTokens(filePath, arr);
+            }
+
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns true if the directory of the file is indexed, call with the lock held.
+     */
+    private boolean isListed(String filePath) {
+        String parent = new File(filePath).getParent();
+        return parent != null && directories.containsKey(parent);
+    }
+
+    private void requestRefresh(final File root, final Set<File> excludedDirs) {
+        final String rootPath = root.getAbsolutePath();
+
+        synchronized (this) {
+            Long last = refreshTimes.get(rootPath);
+            if (last != null && System.currentTimeMillis() - last < REFRESH_INTERVAL_MILLIS) {
+                return;
+            }
+        }
+
+        if (!pendingRefreshes.add(rootPath)) {
+            return;
+        }
+
+        refreshExec.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh(root, new HashSet<File>(excludedDirs));
+                } finally {
+                    pendingRefreshes.remove(rootPath);
+                }
+            }
+        });
+    }
+
+    private void refresh(File root, Set<File> excludedDirs) {
+        try {
+            refreshDirectory(root, excludedDirs);
+
+            synchronized (this) {
+                refreshTimes.put(root.getAbsolutePath(), System.currentTimeMillis());
+                if (dirty) {
+                    save();
+                    dirty = false;
+                }
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error refreshing library index of " + root, e);
+        }
+    }
+
+    /**
+     * Lists the directory only if it changed since the last time, then does the
+     * same with the subdirectories.
+     */
+    private void refreshDirectory(File dir, Set<File> excludedDirs) {
+        String dirPath = dir.getAbsolutePath();
+        long lastModified = dir.lastModified();
+
+        String[] subdirs;
+
+        DirectoryEntry entry;
+        synchronized (this) {
+            entry = directories.get(dirPath);
+        }
+
+        if (entry == null || entry.lastModified != lastModified) {
+            List<String> files = new ArrayList<String>();
+            List<String> dirs = new ArrayList<String>();
+
+            if (lastModified != 0 && dir.isDirectory()) {
+                for (File child : FileUtils.listFiles(dir)) {
+                    if (child.isHidden()) {
+                        continue;
+                    }
+                    if (child.isDirectory()) {
+                        dirs.add(child.getName());
+                    } else {
+                        files.add(child.getName());
+                    }
+                }
+            }
+
+            DirectoryEntry newEntry = new DirectoryEntry(lastModified, files.toArray(EMPTY_ARRAY), dirs.toArray(EMPTY_ARRAY));
+
+            synchronized (this) {
+                updateDirectory(dirPath, newEntry);
+            }
+
+            subdirs = newEntry.dirs;
+        } else {
+            subdirs = entry.dirs;
+        }
+
+        for (String name : subdirs) {
+            File subdir = new File(dir, name);
+            if (!excludedDirs.contains(subdir)) {
+                refreshDirectory(subdir, excludedDirs);
+            }
+        }
+    }
+
+    private void updateDirectory(String dirPath, DirectoryEntry newEntry) {
+        DirectoryEntry oldEntry = directories.get(dirPath);
+
+        if (oldEntry == null) {
+            addTokens(dirPath, tokenize(new File(dirPath).getName()).toArray(EMPTY_ARRAY));
+        } else {
+            Set<String> names = new HashSet<String>();
+            Collections.addAll(names, newEntry.files);
+            for (String name : oldEntry.files) {
+                if (!names.contains(name)) {
+                    removeFile(dirPath + File.separator + name);
+                }
+            }
+
+            names.clear();
+            Collections.addAll(names, newEntry.dirs);
+            for (String name : oldEntry.dirs) {
+                if (!names.contains(name)) {
+                    removeDirectory(dirPath + File.separator + name);
+                }
+            }
+        }
+
+        Set<String> oldFiles = new HashSet<String>();
+        if (oldEntry != null) {
+            Collections.addAll(oldFiles, oldEntry.files);
+        }
+        for (String name : newEntry.files) {
+            if (!oldFiles.contains(name)) {
+                addTokens(dirPath + File.separator + name, tokenize(name).toArray(EMPTY_ARRAY));
+            }
+        }
+
+        directories.put(dirPath, newEntry);
+        dirty = true;
+    }
+
+    private void removeFile(String filePath) {
+        removeTokens(filePath, tokenize(new File(filePath).getName()).toArray(EMPTY_ARRAY));
+
+        String[] fileTags = tags.remove(filePath);
+        if (fileTags != null) {
+            removeTokens(filePath, fileTags);
+        }
+    }
+
+    private void removeDirectory(String dirPath) {
+        DirectoryEntry entry = directories.remove(dirPath);
+        if (entry == null) {
+            return;
+        }
+
+        removeTokens(dirPath, tokenize(new File(dirPath).getName()).toArray(EMPTY_ARRAY));
+
+        for (String name : entry.files) {
+            removeFile(dirPath + File.separator + name);
+        }
+        for (String name : entry.dirs) {
+            removeDirectory(dirPath + File.separator + name);
+        }
+    }
+
+    private void addTokens(String path, String[] tokens) {
+        for (String token : tokens) {
+            Set<String> paths = trie.get(token);
+            if (paths == null) {
+                paths = new HashSet<String>(2);
+                trie.put(token, paths);
+            }
+            paths.add(path);
+        }
+    }
+
+    private void removeTokens(String path, String[] tokens) {
+        for (String token : tokens) {
+            Set<String> paths = trie.get(token);
+            if (paths != null) {
+                paths.remove(path);
+                if (paths.isEmpty()) {
+                    trie.remove(token);
+                }
+            }
+        }
+    }
+
+    private List<File> find(String rootPath, List<String> keywords, Set<File> excludedDirs) {
+        List<File> result = new ArrayList<File>();
+
+        if (keywords.isEmpty()) {
+            return result;
+        }
+
+        // paths (files or directories) matching each keyword, copied out of the trie
+        List<Set<String>> matches = new ArrayList<Set<String>>(keywords.size());
+        Set<String> smallest = null;
+
+        synchronized (this) {
+            for (String keyword : keywords) {
+                Set<String> paths = new HashSet<String>();
+                for (Set<String> p : trie.getPrefixedBy(keyword).values()) {
+                    paths.addAll(p);
+                }
+                if (paths.isEmpty()) {
+                    return result;
+                }
+                matches.add(paths);
+                if (smallest == null || paths.size() < smallest.size()) {
+                    smallest = paths;
+                }
+            }
+        }
+
+        List<File> candidates = new ArrayList<File>();
+        for (String path : smallest) {
+            if (directories.containsKey(path)) {
+                collectFiles(path, excludedDirs, candidates);
+            } else {
+                candidates.add(new File(path));
+            }
+        }
+
+        String rootPrefix = rootPath + File.separator;
+
+        for (File file : candidates) {
+            String path = file.getAbsolutePath();
+
+            if (!path.startsWith(rootPrefix) || isExcluded(file, rootPath, excludedDirs)) {
+                continue;
+            }
+
+            boolean accept = true;
+            for (Set<String> paths : matches) {
+                if (paths != smallest && !matchesPathOrParent(path, rootPath, paths)) {
+                    accept = false;
+                    break;
+                }
+            }
+
+            if (accept) {
+                result.add(file);
+            }
+        }
+
+        return result;
+    }
+
+    private boolean matchesPathOrParent(String path, String rootPath, Set<String> paths) {
+        while (path != null && path.length() >= rootPath.length()) {
+            if (paths.contains(path)) {
+                return true;
+            }
+            int index = path.lastIndexOf(File.separatorChar);
+            path = index > 0 ? path.substring(0, index) : null;
+        }
+
+        return false;
+    }
+
+    private boolean isExcluded(File file, String rootPath, Set<File> excludedDirs) {
+        if (excludedDirs.isEmpty()) {
+            return false;
+        }
+
+        File parent = file.getParentFile();
+        while (parent != null && parent.getAbsolutePath().length() >= rootPath.length()) {
+            if (excludedDirs.contains(parent)) {
+                return true;
+            }
+            parent = parent.getParentFile();
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds the files of the directory and its subdirectories, without the lock of
+     * the index, the listings are replaced but never modified.
+     */
+    private void collectFiles(String dirPath, Set<File> excludedDirs, List<File> result) {
+        DirectoryEntry entry = directories.get(dirPath);
+        if (entry == null) {
+            return;
+        }
+
+        for (String name : entry.files) {
+            result.add(new File(dirPath, name));
+        }
+
+        for (String name : entry.dirs) {
+            File subdir = new File(dirPath, name);
+            if (!excludedDirs.contains(subdir)) {
+                collectFiles(subdir.getAbsolutePath(), excludedDirs, result);
+            }
+        }
+    }
+
+    private static List<String> tokenize(String str) {
+        String norm = Normalizer.normalize(str, Normalizer.Form.NFKD);
+        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+        norm = norm.toLowerCase(Locale.US);
+
+        List<String> tokens = new ArrayList<String>();
+        for (String token : norm.split("[^\\p{L}\\p{N}]+")) {
+            if (token.length() > 0) {
+                tokens.add(token);
+            }
+        }
+
+        return tokens;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!indexFile.exists() || indexFile.length() == 0) {
+            return;
+        }
+
+        ObjectInputStream ois = null;
+
+        try {
+            ois = new ObjectInputStream(new FileInputStream(indexFile));
+            directories = new ConcurrentHashMap<String, DirectoryEntry>((HashMap<String, DirectoryEntry>) ois.readObject());
+            tags = (HashMap<String, String[]>) ois.readObject();
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Unable to load the library index, it will be created again", e);
+            directories = new ConcurrentHashMap<String, DirectoryEntry>();
+            tags = new HashMap<String, String[]>();
+        } finally {
+            FileUtils.close(ois);
+        }
+
+        // the tags of files out of the library folders, saved before they were dropped
+        Iterator<String> it = tags.keySet().iterator();
+        while (it.hasNext()) {
+            if (!isListed(it.next())) {
+                it.remove();
+                dirty = true;
+            }
+        }
+
+        for (Map.Entry<String, DirectoryEntry> e : directories.entrySet()) {
+            String dirPath = e.getKey();
+            addTokens(dirPath, tokenize(new File(dirPath).getName()).toArray(EMPTY_ARRAY));
+            for (String name : e.getValue().files) {
+                addTokens(dirPath + File.separator + name, tokenize(name).toArray(EMPTY_ARRAY));
+            }
+        }
+
+        for (Map.Entry<String, String[]> e : tags.entrySet()) {
+            addTokens(e.getKey(), e.getValue());
+        }
+    }
+
+    private void save() {
+        File temp = new File(indexFile.getAbsolutePath() + ".tmp");
+
+        ObjectOutputStream oos = null;
+
+        try {
+            oos = new ObjectOutputStream(new FileOutputStream(temp));
+            oos.writeObject(new HashMap<String, DirectoryEntry>(directories));
+            oos.writeObject(tags);
+            oos.close();
+            oos = null;
+
+            if (!temp.renameTo(indexFile)) {
+                indexFile.delete();
+                temp.renameTo(indexFile);
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Unable to save the library index", e);
+        } finally {
+            FileUtils.close(oos);
+        }
+    }
+
+    private static final class DirectoryEntry implements Serializable {
+
+        private static final long serialVersionUID = -2466331594296578133L;
+
+        public final long lastModified;
+        public final String[] files;
+        public final String[] dirs;
+
+        public DirectoryEntry(long lastModified, String[] files, String[] dirs) {
+            this.lastModified = lastModified;
+            this.files = files;
+            this.dirs = dirs;
+        }
+    }
+}
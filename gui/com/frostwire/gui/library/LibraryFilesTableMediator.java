@@ -63,7 +63,6 @@ import com.frostwire.gui.player.MediaSource;
 import com.frostwire.gui.theme.SkinMenu;
 import com.frostwire.gui.theme.SkinMenuItem;
 import com.frostwire.gui.theme.SkinPopupMenu;
-import com.frostwire.gui.upnp.UPnPManager;
 import com.limegroup.gnutella.MediaType;
 import com.limegroup.gnutella.gui.ButtonRow;
 import com.limegroup.gnutella.gui.CheckBoxList;
@@ -810,6 +809,9 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
 
         if (sel.length == 1) {
             LibraryMediator.instance().getLibraryCoverArt().setFile(selectedFile);
+            if (getMediaType().equals(MediaType.getAudioMediaType())) {
+                prefetchCoverArt(sel[0]);
+            }
         }
 
         boolean anyBeingShared = isAnyBeingShared();
@@ -1243,21 +1245,24 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
         @Override
         public void actionPerformed(ActionEvent e) {
             int[] rows = TABLE.getSelectedRows();
+            List<String> paths = new ArrayList<String>(rows.length);
             for (int i = 0; i < rows.length; i++) {
                 int index = rows[i]; // current index to add
                 File file = DATA_MODEL.getFile(index);
-                LibraryFilesTableDataLine dataLine = DATA_MODEL.get(i);
+                LibraryFilesTableDataLine dataLine = DATA_MODEL.get(index);
                 try {
                     //this is so that we avoid re-sharing what's already shared.
                     //we nest this logic for clarity.
                     if (share) {
                         if (!Librarian.instance().isFileShared(file.getAbsolutePath())) {
-                            actualShare(dataLine, file);
+                            dataLine.setShared(share);
+                            paths.add(file.getAbsolutePath());
                         }
                     } 
                     //this happens only when.
                     else {
-                        actualShare(dataLine,file);
+                        dataLine.setShared(share);
+                        paths.add(file.getAbsolutePath());
                     }
 
                 } catch (Exception ex) {
@@ -1265,12 +1270,8 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
                 }
             }
 
-            UPnPManager.instance().refreshPing();
-        }
-        
-        private void actualShare(LibraryFilesTableDataLine dataLine, File file) {
-            dataLine.setShared(share);
-            Librarian.instance().shareFile(file.getAbsolutePath(), share, false);
+            // one task for all the files, the ping is refreshed when it's done
+            Librarian.instance().shareFiles(paths, share, true);
         }
     }
 }
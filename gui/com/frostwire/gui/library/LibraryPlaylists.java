@@ -310,15 +310,31 @@ public class LibraryPlaylists extends AbstractLibraryListPanel {
         Playlist playlist = cell.getPlaylist();
 
         if (playlist != null) {
-            playlist.refresh();
+            // the table reads its first rows by itself, the items are loaded in the background
             LibraryMediator.instance().updateTableItems(playlist);
-            String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItems().size() + " " + I18n.tr("tracks");
-            LibraryMediator.instance().getLibrarySearch().setStatus(status);
+            refreshItems(playlist);
         }
 
         executePendingRunnables();
     }
 
+    private void refreshItems(final Playlist playlist) {
+        BackgroundExecutorService.schedule(new Runnable() {
+            public void run() {
+                playlist.refresh();
+
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    public void run() {
+                        if (playlist.equals(getSelectedPlaylist())) {
+                            String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItems().size() + " " + I18n.tr("tracks");
+                            LibraryMediator.instance().getLibrarySearch().setStatus(status);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     private void actionStartRename() {
         cancelEdit();
         int index = _list.getSelectedIndex();
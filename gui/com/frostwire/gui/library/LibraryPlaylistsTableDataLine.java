@@ -137,6 +137,8 @@ public final class LibraryPlaylistsTableDataLine extends AbstractLibraryTableDat
 
     private String bitrate;
 
+    private int position;
+
     /**
      * Sets up the dataline for use with the playlist.
      */
@@ -144,6 +146,7 @@ public final class LibraryPlaylistsTableDataLine extends AbstractLibraryTableDat
         super.initialize(item);
         sizeHolder = new SizeHolder(item.getFileSize());
         exists = new File(item.getFilePath()).exists();
+        position = LibraryPlaylistsTableMediator.instance().getPosition(item);
 
         bitrate = initializer.getTrackBitrate();
         if (bitrate != null && bitrate.length() > 0 && !bitrate.endsWith(" kbps")) {
@@ -165,7 +168,8 @@ public final class LibraryPlaylistsTableDataLine extends AbstractLibraryTableDat
         
         switch (idx) {
         case SORT_INDEX_IDX:
-            return new PlaylistItemIntProperty(this, initializer.getSortIndex(), playing, exists);
+            // the position is shown, the sort index has gaps but the same order
+            return new PlaylistItemIntProperty(this, position > 0 ? String.valueOf(position) : "", initializer.getSortIndex(), playing, exists);
         case ACTIONS_IDX:
             actionsHolder.setPlaying(playing);
             return actionsHolder;
@@ -23,8 +23,11 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
@@ -32,7 +35,10 @@ import java.awt.event.MouseMotionAdapter;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -48,6 +54,7 @@ import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
 
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.OSUtils;
 
 import com.frostwire.alexandria.Playlist;
@@ -87,6 +94,23 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
 
     private Playlist currentPlaylist;
 
+    /**
+     * Rows of a playlist read from the database at a time, the next page is
+     * read when the table is scrolled near its last row.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    private static final ExecutorService PAGE_LOADER = ExecutorsHelper.newProcessingQueue("LibraryPlaylistsTableMediator-PageLoader");
+
+    /**
+     * Positions (1-based) of the items of the current playlist by id, shown
+     * in the index column since the sort indexes have gaps.
+     */
+    private final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+
+    private PlaylistPager pager;
+    private boolean pagingListenerAdded;
+
     /**
      * Variables so the PopupMenu & ButtonRow can have the same listeners
      */
@@ -123,6 +147,15 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
         return currentPlaylist;
     }
 
+    /**
+     * Returns the position (1-based) of the item in the current playlist,
+     * 0 if it's not there.
+     */
+    int getPosition(PlaylistItem item) {
+        Integer position = positions.get(item.getId());
+        return position != null ? position : 0;
+    }
+
     /**
      * Build some extra listeners
      */
@@ -375,6 +408,13 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
         TABLE.addMouseMotionListener(listener);
     }
 
+    @Override
+    public void clearTable() {
+        // the pages of the playlist still on their way aren't added
+        pager = null;
+        super.clearTable();
+    }
+
     /**
      * Updates the Table based on the selection of the given table.
      * Perform lookups to remove any store files from the shared folder
@@ -385,21 +425,67 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
             return;
         }
 
+        // a refresh of the same playlist loads at least the rows it had
+        int minRows = pager != null && pager.playlist.equals(playlist) ? pager.loaded : 0;
+
         currentPlaylist = playlist;
-        List<PlaylistItem> items = currentPlaylist.getItems();
+        positions.clear();
+        pager = null;
 
         clearTable();
-        for (final PlaylistItem item : items) {
-            GUIMediator.safeInvokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    addUnsorted(item);
-                }
-            });
+
+        if (playlist.isStarred()) {
+            // not in the database as a playlist, the items are already loaded
+            int position = 0;
+            for (final PlaylistItem item : playlist.getItems()) {
+                final int itemPosition = ++position;
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        positions.put(item.getId(), itemPosition);
+                        addUnsorted(item);
+                    }
+                });
+            }
+        } else {
+            addPagingListener();
+            pager = new PlaylistPager(playlist, minRows);
+            pager.loadNextPage();
         }
+
         forceResort();
     }
 
+    private void addPagingListener() {
+        if (pagingListenerAdded) {
+            return;
+        }
+        pagingListenerAdded = true;
+
+        SCROLL_PANE.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                if (pager != null && isNearLastRow()) {
+                    pager.loadNextPage();
+                }
+            }
+        });
+    }
+
+    /**
+     * True if the last visible row is in the last half page of the loaded
+     * rows, or the rows don't fill the table.
+     */
+    private boolean isNearLastRow() {
+        if (!TABLE.isShowing()) {
+            return false;
+        }
+
+        Rectangle visible = TABLE.getVisibleRect();
+        int lastVisibleRow = TABLE.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+
+        return lastVisibleRow == -1 || lastVisibleRow >= TABLE.getRowCount() - PAGE_SIZE / 2;
+    }
+
     /**
      * Returns the <tt>File</tt> stored at the specified row in the list.
      *
@@ -592,6 +678,7 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
 
         if (sel.length == 1) {
             LibraryMediator.instance().getLibraryCoverArt().setFile(getSelectedLibraryLines()[0].getFile());
+            prefetchCoverArt(sel[0]);
         }
     }
 
@@ -857,6 +944,14 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
                 return Collections.emptyList();
             }
         }
+
+        // the play queue goes on with the items not read in the table yet
+        if (pager != null) {
+            for (PlaylistItem item : pager.getUnreadItems()) {
+                result.add(new MediaSource(item));
+            }
+        }
+
         return result;
     }
 
@@ -879,4 +974,97 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
     protected MediaSource createMediaSource(LibraryPlaylistsTableDataLine line) {
         return new MediaSource(line.getInitializeObject());
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds the items of a playlist to the table a page at a time, read from
+     * the database by sort index, so the table shows the first rows without
+     * loading the whole playlist. The rows are the items the playlist keeps.
+     * Used only in the event dispatch thread.
+     */
+    private final class PlaylistPager {
+
+        private final Playlist playlist;
+        private final int minRows;
+
+        private PlaylistItem last;
+        private int loaded;
+        private boolean loading;
+        private boolean done;
+
+        public PlaylistPager(Playlist playlist, int minRows) {
+            this.playlist = playlist;
+            this.minRows = minRows;
+        }
+
+        public void loadNextPage() {
+            if (loading || done) {
+                return;
+            }
+            loading = true;
+
+            final PlaylistItem after = last;
+
+            PAGE_LOADER.execute(new Runnable() {
+                public void run() {
+                    List<PlaylistItem> page;
+                    try {
+                        page = playlist.getItemsPage(after, PAGE_SIZE);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        page = Collections.emptyList();
+                    }
+
+                    final List<PlaylistItem> items = page;
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            onPageLoaded(items);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void onPageLoaded(List<PlaylistItem> items) {
+            loading = false;
+
+            if (pager != this) {
+                return; // another playlist selected
+            }
+
+            for (PlaylistItem item : items) {
+                positions.put(item.getId(), ++loaded);
+                add(item);
+            }
+
+            if (!items.isEmpty()) {
+                last = items.get(items.size() - 1);
+            }
+            if (items.size() < PAGE_SIZE) {
+                done = true;
+            }
+
+            if (loaded < minRows || isNearLastRow()) {
+                loadNextPage();
+            }
+        }
+
+        /**
+         * The items kept in memory by the playlist that come after the last
+         * row read, empty once all the rows are read.
+         */
+        public List<PlaylistItem> getUnreadItems() {
+            if (done) {
+                return Collections.emptyList();
+            }
+
+            List<PlaylistItem> items = playlist.getItems();
+            synchronized (items) {
+                int from = last != null ? items.indexOf(last) + 1 : 0;
+                if (last != null && from == 0) {
+                    return Collections.emptyList();
+                }
+                return new ArrayList<PlaylistItem>(items.subList(from, items.size()));
+            }
+        }
+    }
+}
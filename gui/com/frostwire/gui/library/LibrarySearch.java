@@ -29,9 +29,11 @@ import java.io.File;
 import java.io.FileFilter;
 import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import javax.swing.AbstractAction;
@@ -40,7 +42,6 @@ import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
-import org.limewire.util.FileUtils;
 import org.limewire.util.StringUtils;
 
 import com.frostwire.alexandria.InternetRadioStation;
@@ -353,57 +354,55 @@ public class LibrarySearch extends JPanel {
         }
 
         /**
-         * It searches _query in haystackDir.
+         * It searches _query in haystackDir, using the library index.
          * 
          * @param haystackDir
          * @param excludeFiles - Usually a list of incomplete files.
          */
-        private void search(File haystackDir, Set<File> excludeFiles, Set<File> exludedSubFolders) {
+        private void search(final File haystackDir, final Set<File> excludeFiles, final Set<File> exludedSubFolders) {
             if (canceled) {
                 return;
             }
 
-            if (haystackDir == null || !haystackDir.isDirectory() || !haystackDir.exists()) {
+            if (haystackDir == null) {
                 return;
             }
 
-            final List<File> directories = new ArrayList<File>();
+            List<File> files = LibraryFilesIndex.instance().search(haystackDir, _query, exludedSubFolders, new Runnable() {
+                public void run() {
+                    // first time this folder is searched, now it's indexed
+                    BackgroundExecutorService.schedule(new Runnable() {
+                        public void run() {
+                            search(haystackDir, excludeFiles, exludedSubFolders);
+                        }
+                    });
+                }
+            });
+
             final List<File> results = new ArrayList<File>();
-            SearchFileFilter searchFilter = new SearchFileFilter(_query);
 
-            for (File child : FileUtils.listFiles(haystackDir)) { //haystackDir.listFiles(searchFilter)) {
+            for (File child : files) {
                 if (canceled) {
                     return;
                 }
 
-                /////
-                //Stop search if the user selected another item in the library tree
-                DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
-                if (!directoryHolder.equals(currentDirectoryHolder)) {
-                    return;
-                }
-                /////
-
                 if (excludeFiles.contains(child)) {
                     continue;
                 }
 
-                if (child.isHidden()) {
-                    continue;
+                // the index already matched the query
+                if (directoryHolder instanceof SavedFilesDirectoryHolder || directoryHolder.accept(child)) {
+                    results.add(child);
                 }
+            }
 
-                if (child.isDirectory() && !exludedSubFolders.contains(child)) {
-                    directories.add(child);
-                } else if (child.isFile()) {
-                    if (directoryHolder instanceof SavedFilesDirectoryHolder) {
-                        if (searchFilter.accept(child, false)) {
-                            results.add(child);
-                        }
-                    } else if (directoryHolder.accept(child)) {
-                        results.add(child);
-                    }
-                }
+            /////
+            //Stop search if the user selected another item in the library tree
+            DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
+            if (!directoryHolder.equals(currentDirectoryHolder)) {
+                return;
             }
+            /////
 
             Runnable r = new Runnable() {
                 public void run() {
@@ -415,10 +414,6 @@ public class LibrarySearch extends JPanel {
                 }
             };
             GUIMediator.safeInvokeLater(r);
-
-            for (File directory : directories) {
-                search(directory, excludeFiles, exludedSubFolders);
-            }
         }
 
         private void search(List<File> cache) {
@@ -573,6 +568,17 @@ public class LibrarySearch extends JPanel {
 
             final List<PlaylistItem> results = new ArrayList<PlaylistItem>();
 
+            // the rows are the items the playlist keeps, the playlist operations find them
+            Map<Integer, PlaylistItem> items = new HashMap<Integer, PlaylistItem>();
+            if (!playlist.isStarred()) {
+                List<PlaylistItem> playlistItems = playlist.getItems();
+                synchronized (playlistItems) {
+                    for (PlaylistItem item : playlistItems) {
+                        items.put(item.getId(), item);
+                    }
+                }
+            }
+
             for (List<Object> row : rows) {
                 if (canceled) {
                     return;
@@ -586,8 +592,11 @@ public class LibrarySearch extends JPanel {
                 }
                 /////
 
-                PlaylistItem item = new PlaylistItem(currentPlaylist);
-                PlaylistItemDB.fill(row, item);
+                PlaylistItem item = items.get(row.get(0));
+                if (item == null) {
+                    item = new PlaylistItem(currentPlaylist);
+                    PlaylistItemDB.fill(row, item);
+                }
                 results.add(item);
 
                 if (results.size() > 100) {
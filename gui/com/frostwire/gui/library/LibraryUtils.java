@@ -26,6 +26,10 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -91,23 +95,13 @@ public class LibraryUtils {
                     mt.getBitrate(), mt.getComment(), mt.getGenre(), mt.getTrack(), mt.getYear(), starred);
 
             List<PlaylistItem> items = playlist.getItems();
-            if (index != -1 && index < items.size()) {
+            int position = index != -1 && index < items.size() ? index : items.size();
 
-                // insert item
-                items.add(index, item);
+            items.add(position, item);
 
-                // update all sort indexes from insertion point onwards
-                for (int i = index; i < items.size(); i++) {
-                    PlaylistItem cur_item = items.get(i);
-                    cur_item.setSortIndex(i + 1); //set index 1-based
-                    cur_item.save();
-                }
-
-            } else {
-                items.add(item);
-                item.setSortIndex(items.size()); // set sort index to 1-based size
-                item.save();
-            }
+            // only the new item, unless the indexes around are used up
+            playlist.saveSortIndexes(playlist.assignSortIndexes(position, position + 1));
+            item.save();
 
             if (isPlaylistSelected(playlist)) {
                 // refresh UI
@@ -494,12 +488,13 @@ public class LibraryUtils {
                 }
             }
 
-            // reupdate sort indexes now that the ordering in the list is correct
-            items = playlist.getItems();
-            for (int i = 0; i < items.size(); i++) {
-                PlaylistItem item = items.get(i);
-                item.setSortIndex(i + 1); // set index 1-based
-                item.save();
+            // sort indexes for the new items only, now that the ordering in the list is correct
+            updateSortIndexes(playlist, Arrays.asList(playlistItems));
+
+            for (int i = 0; i < playlistItems.length && !playlist.isDeleted(); i++) {
+                if (playlistItems[i].getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
+                    playlistItems[i].save();
+                }
             }
 
         } else {
@@ -507,13 +502,14 @@ public class LibraryUtils {
 
                 playlistItems[i].setPlaylist(playlist);
                 items.add(playlistItems[i]);
-                playlistItems[i].setSortIndex(items.size()); // set sort index to be at the end (1-based)
+                List<PlaylistItem> changed = playlist.assignSortIndexes(items.size() - 1, items.size()); // set sort index to be at the end
 
                 if (starred) {
                     playlistItems[i].setStarred(starred);
                 }
 
                 playlistItems[i].save();
+                playlist.saveSortIndexes(changed); // the other items, if they were numbered again
             }
         }
     }
@@ -796,6 +792,11 @@ public class LibraryUtils {
         List<PlaylistItem> items = playlist.getItems();
         int targetIndex = index;
 
+        List<PlaylistItem> moved = new ArrayList<PlaylistItem>(selectedIndexes.length);
+        for (int i = 0; i < selectedIndexes.length; i++) {
+            moved.add(items.get(selectedIndexes[i]));
+        }
+
         // first, order items in list correctly
         for (int i = 0; i < selectedIndexes.length; i++) {
             int sourceIndex = selectedIndexes[i];
@@ -818,12 +819,8 @@ public class LibraryUtils {
             }
         }
 
-        // second, generate new indexes based list order
-        for (int i = 0; i < items.size(); i++) {
-            PlaylistItem item = items.get(i);
-            item.setSortIndex(i + 1); // set index (1-based)
-            item.save();
-        }
+        // second, new indexes for the moved items only
+        updateSortIndexes(playlist, moved);
 
         // initiate UI refresh
         GUIMediator.safeInvokeLater(new Runnable() {
@@ -832,4 +829,41 @@ public class LibraryUtils {
             }
         });
     }
+
+    /**
+     * Gives the items, already in their new positions in the playlist, sort
+     * indexes between their neighbours, and saves the indexes that changed
+     * in one batch. Touches only the given items, unless the room between
+     * the indexes is used up and the playlist is numbered again.
+     */
+    private static void updateSortIndexes(Playlist playlist, Collection<PlaylistItem> placed) {
+        Set<PlaylistItem> set = Collections.newSetFromMap(new IdentityHashMap<PlaylistItem, Boolean>());
+        set.addAll(placed);
+
+        // runs of consecutive placed items, as [from, to) pairs
+        List<int[]> runs = new ArrayList<int[]>();
+        int position = 0;
+        int from = -1;
+        for (PlaylistItem item : playlist.getItems()) {
+            if (set.contains(item)) {
+                if (from == -1) {
+                    from = position;
+                }
+            } else if (from != -1) {
+                runs.add(new int[] { from, position });
+                from = -1;
+            }
+            position++;
+        }
+        if (from != -1) {
+            runs.add(new int[] { from, position });
+        }
+
+        Set<PlaylistItem> changed = Collections.newSetFromMap(new IdentityHashMap<PlaylistItem, Boolean>());
+        for (int[] run : runs) {
+            changed.addAll(playlist.assignSortIndexes(run[0], run[1]));
+        }
+
+        playlist.saveSortIndexes(new ArrayList<PlaylistItem>(changed));
+    }
 }
@@ -24,7 +24,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.frostwire.gui.mplayer.MPlayer;
+import com.frostwire.gui.mplayer.MPlayerProbe;
 
 /**
  * 
@@ -44,27 +44,21 @@ class MPlayerParser extends AbstractTagParser {
         TagsData data = null;
 
         try {
-            MPlayer mplayer = new MPlayer();
+            Map<String, String> properties = MPlayerProbe.instance().getProperties(file);
 
-            try {
-                Map<String, String> properties = mplayer.getProperties(file.getAbsolutePath());
+            int duration = parseDuration(properties.get("ID_LENGTH"));
+            String bitrate = parseBitrate(properties.get("ID_AUDIO_BITRATE"));
 
-                int duration = parseDuration(properties.get("ID_LENGTH"));
-                String bitrate = parseBitrate(properties.get("ID_AUDIO_BITRATE"));
+            String title = properties.get("Title");
+            String artist = properties.get("Artist");
+            String album = properties.get("Album");
+            String comment = properties.get("Comment");
+            String genre = properties.get("Genre");
+            String track = properties.get("Track");
+            String year = properties.get("Year");
 
-                String title = properties.get("Title");
-                String artist = properties.get("Artist");
-                String album = properties.get("Album");
-                String comment = properties.get("Comment");
-                String genre = properties.get("Genre");
-                String track = properties.get("Track");
-                String year = properties.get("Year");
+            data = sanitize(duration, bitrate, title, artist, album, comment, genre, track, year);
 
-                data = sanitize(duration, bitrate, title, artist, album, comment, genre, track, year);
-
-            } finally {
-                mplayer.dispose();
-            }
         } catch (Exception e) {
             LOG.warn("Unable to parse file with mplayer: " + file, e);
         }
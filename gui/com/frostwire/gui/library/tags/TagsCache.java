@@ -0,0 +1,501 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.gui.library.tags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.util.CommonUtils;
+
+/**
+ * Persistent cache of the tags of the files, keyed by path and checked
+ * against the size and modification date of the file, so a file is parsed
+ * at most once per modification.
+ *
+ * The cache is a binary log of records, a record is appended every time
+ * a file is parsed. At startup the log is memory mapped and only the
+ * offset of the last record of each path is kept in memory, the records
+ * are decoded from the mapping when looked up. The records appended later
+ * are kept in memory until they are flushed, then read back from the file.
+ *
+ * The log is compacted at startup, before it's mapped, when most of it are
+ * records replaced since.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TagsCache {
+
+    private static final Log LOG = LogFactory.getLog(TagsCache.class);
+
+    private static final String CACHE_FILE_NAME = "tags.dat";
+
+    private static final int MAGIC = 0x46575447; // FWTG
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Records appended before the log is flushed to disk.
+     */
+    private static final int FLUSH_INTERVAL = 64;
+
+    /**
+     * Records kept when the log can't be written.
+     */
+    private static final int MAX_MEMORY_ENTRIES = 4096;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final TagsCache instance = new TagsCache();
+
+    public static TagsCache instance() {
+        return instance;
+    }
+
+    private final File cacheFile;
+
+    // path -> offset of its last record in the log
+    private final Map<String, Integer> offsets;
+    // records not flushed to the log yet
+    private final Map<String, Entry> appended;
+
+    private MappedByteBuffer mapped;
+    private RandomAccessFile reader;
+    private DataOutputStream out;
+    private int position;
+    private int unflushed;
+    private boolean loaded;
+    private boolean appendDisabled;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    private TagsCache() {
+        this.cacheFile = new File(CommonUtils.getUserSettingsDir(), CACHE_FILE_NAME);
+        this.offsets = new HashMap<String, Integer>();
+        this.appended = new HashMap<String, Entry>();
+
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    /**
+     * Returns the cached tags of the file, null if they are not cached or
+     * the file was modified since.
+     */
+    public synchronized TagsData get(File file) {
+        load();
+
+        String path = file.getAbsolutePath();
+
+        Entry e = appended.get(path);
+        if (e == null) {
+            Integer offset = offsets.get(path);
+            if (offset != null) {
+                try {
+                    e = read(offset);
+                } catch (Throwable t) {
+                    LOG.warn("Error reading tags cache record of: " + path, t);
+                    offsets.remove(path);
+                }
+            }
+        }
+
+        if (e != null && e.fileSize == file.length() && e.lastModified == file.lastModified()) {
+            hits.incrementAndGet();
+            return e.data;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the tags of the file as of its current size and modification date.
+     */
+    public synchronized void put(File file, TagsData data) {
+        if (data == null) {
+            return;
+        }
+
+        load();
+
+        Entry e = new Entry(file.getAbsolutePath(), file.length(), file.lastModified(), data);
+
+        if (out != null) {
+            try {
+                int length = write(out, e);
+                appended.put(e.path, e);
+                offsets.put(e.path, position);
+                position += length;
+                if (++unflushed >= FLUSH_INTERVAL) {
+                    out.flush();
+                    unflushed = 0;
+                    // on disk now, read back by offset
+                    appended.clear();
+                }
+            } catch (Throwable t) {
+                LOG.warn("Error writing tags cache, keeping it in memory only", t);
+                closeOutput();
+            }
+        } else if (appended.size() < MAX_MEMORY_ENTRIES || appended.containsKey(e.path)) {
+            appended.put(e.path, e);
+            offsets.remove(e.path);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Indexes the offsets of the records, compacting the log if needed,
+     * then maps it and opens it for append.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        int records = -1;
+
+        if (cacheFile.exists()) {
+            try {
+                records = scan();
+            } catch (Throwable e) {
+                LOG.warn("Error loading tags cache, starting a new one", e);
+                offsets.clear();
+            }
+        }
+
+        boolean clean = records >= 0;
+
+        if (!clean || records > 2 * offsets.size()) {
+            if (compact()) {
+                clean = true;
+            }
+        }
+
+        // don't append after a damaged or truncated record
+        appendDisabled = !clean;
+
+        map();
+        openOutput();
+
+        Runtime.getRuntime().addShutdownHook(new Thread("TagsCache-Flush") {
+            @Override
+            public void run() {
+                synchronized (TagsCache.this) {
+                    closeOutput();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the offsets of the records with a plain stream, the log is not
+     * mapped yet so compact() can still replace it.
+     *
+     * @return the number of records, -1 if the log is damaged or truncated
+     */
+    private int scan() throws IOException {
+        long fileLength = cacheFile.length();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        try {
+            if (fileLength < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+
+            int records = 0;
+            long pos = HEADER_SIZE;
+            while (pos + 4 <= fileLength) {
+                int length = in.readInt();
+                if (length < 4 || pos + 4 + length > fileLength) {
+                    break; // truncated by a crash
+                }
+                int pathLength = in.readInt();
+                if (pathLength < 0 || 4 + pathLength > length) {
+                    break;
+                }
+                byte[] path = new byte[pathLength];
+                in.readFully(path);
+                skip(in, length - 4 - pathLength);
+
+                offsets.put(new String(path, UTF8), (int) pos);
+                pos += 4 + length;
+                records++;
+            }
+
+            return pos == fileLength ? records : -1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the last record of each path, copied as
+     * they are. It runs before the log is mapped, windows doesn't let
+     * replace or delete a mapped file.
+     *
+     * @return true if the log was replaced
+     */
+    private boolean compact() {
+        List<Map.Entry<String, Integer>> records = new ArrayList<Map.Entry<String, Integer>>(offsets.entrySet());
+        Collections.sort(records, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+                return o1.getValue().compareTo(o2.getValue());
+            }
+        });
+
+        Map<String, Integer> compacted = new HashMap<String, Integer>(records.size());
+
+        File tmp = new File(cacheFile.getAbsolutePath() + ".tmp");
+        try {
+            cacheFile.getParentFile().mkdirs();
+
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+
+                if (!records.isEmpty()) {
+                    RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+                    try {
+                        for (Map.Entry<String, Integer> r : records) {
+                            raf.seek(r.getValue());
+                            byte[] record = new byte[raf.readInt()];
+                            raf.readFully(record);
+
+                            compacted.put(r.getKey(), dos.size());
+                            dos.writeInt(record.length);
+                            dos.write(record);
+                        }
+                    } finally {
+                        raf.close();
+                    }
+                }
+            } finally {
+                dos.close();
+            }
+
+            if (!tmp.renameTo(cacheFile)) {
+                // windows, renameTo doesn't replace an existing file
+                if ((cacheFile.exists() && !cacheFile.delete()) || !tmp.renameTo(cacheFile)) {
+                    throw new IOException("Unable to replace " + cacheFile);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error compacting tags cache", e);
+            tmp.delete();
+            return false;
+        }
+
+        offsets.clear();
+        offsets.putAll(compacted);
+        return true;
+    }
+
+    /**
+     * Maps the log, the reader stays open for the records appended later.
+     */
+    private void map() {
+        try {
+            reader = new RandomAccessFile(cacheFile, "r");
+            FileChannel channel = reader.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            position = mapped.limit();
+        } catch (Throwable e) {
+            LOG.warn("Error mapping tags cache, keeping it in memory only", e);
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (Throwable t) {
+                    // ignore
+                }
+                reader = null;
+            }
+            offsets.clear();
+            mapped = null;
+            appendDisabled = true;
+        }
+    }
+
+    private void openOutput() {
+        if (appendDisabled) {
+            return;
+        }
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile, true)));
+        } catch (Throwable e) {
+            LOG.warn("Error opening tags cache for append", e);
+            out = null;
+        }
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (Throwable e) {
+                // ignore
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Reads the record from the mapping, or from the file if it was
+     * appended after the log was mapped.
+     */
+    private Entry read(int offset) throws IOException {
+        if (offset < mapped.limit()) {
+            return read(mapped, offset);
+        }
+
+        reader.seek(offset);
+        byte[] record = new byte[4 + reader.readInt()];
+        reader.seek(offset);
+        reader.readFully(record);
+        return read(ByteBuffer.wrap(record), 0);
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    private static int write(DataOutputStream dos, Entry e) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        DataOutputStream record = new DataOutputStream(baos);
+
+        writeString(record, e.path);
+        record.writeLong(e.fileSize);
+        record.writeLong(e.lastModified);
+
+        TagsData d = e.data;
+        record.writeInt(d.getDuration());
+        writeString(record, d.getBitrate());
+        writeString(record, d.getTitle());
+        writeString(record, d.getArtist());
+        writeString(record, d.getAlbum());
+        writeString(record, d.getComment());
+        writeString(record, d.getGenre());
+        writeString(record, d.getTrack());
+        writeString(record, d.getYear());
+        record.flush();
+
+        dos.writeInt(baos.size());
+        baos.writeTo(dos);
+
+        return 4 + baos.size();
+    }
+
+    private static Entry read(ByteBuffer buffer, int offset) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset + 4);
+
+        String path = readString(b);
+        long fileSize = b.getLong();
+        long lastModified = b.getLong();
+
+        int duration = b.getInt();
+        String bitrate = readString(b);
+        String title = readString(b);
+        String artist = readString(b);
+        String album = readString(b);
+        String comment = readString(b);
+        String genre = readString(b);
+        String track = readString(b);
+        String year = readString(b);
+
+        return new Entry(path, fileSize, lastModified, new TagsData(duration, bitrate, title, artist, album, comment, genre, track, year));
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        if (s == null) {
+            dos.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF8);
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer b) {
+        int length = b.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void skip(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    private static final class Entry {
+
+        public final String path;
+        public final long fileSize;
+        public final long lastModified;
+        public final TagsData data;
+
+        public Entry(String path, long fileSize, long lastModified, TagsData data) {
+            this.path = path;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+}
@@ -38,7 +38,23 @@ public class TagsReader {
         this.file = file;
     }
 
+    /**
+     * Returns the tags from the tags cache, parsing the file only if it
+     * was modified since the last time.
+     */
     public TagsData parse() {
+        TagsCache cache = TagsCache.instance();
+
+        TagsData data = cache.get(file);
+        if (data == null) {
+            data = parseFile();
+            cache.put(file, data);
+        }
+
+        return data;
+    }
+
+    private TagsData parseFile() {
         TagsData data = null;
 
         TagsParser parser = new TagsParserFactory().getInstance(file);
@@ -86,6 +86,13 @@ MPlayerInstance
 		
 	}
 
+	/**
+	 * The mplayer binary, null until initialised.
+	 */
+	static File getBinaryPath() {
+		return BINARY_PATH;
+	}
+
 	private volatile Process	mPlayerProcess;
 	
 	private boolean	starting;
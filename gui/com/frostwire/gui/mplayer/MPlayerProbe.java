@@ -0,0 +1,454 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.mplayer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.collection.FixedsizeForgetfulHashMap;
+
+/**
+ * Reads the properties of media files (the ID_ values of mplayer -identify)
+ * with a small pool of long-lived mplayer processes in slave mode, instead
+ * of starting a new process per file.
+ *
+ * The requests of all the threads go to a single queue, each process takes
+ * the waiting requests in batches and loads the files one after the other.
+ * If the answers of a batch don't line up with its files, the process is
+ * restarted and the files are identified one at a time. The results are cached by path, size and modification date. A process
+ * idle for {@link #IDLE_TIMEOUT_MILLIS} is terminated, and started again on
+ * the next request.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class MPlayerProbe {
+
+    private static final Log LOG = LogFactory.getLog(MPlayerProbe.class);
+
+    private static final int POOL_SIZE = 2;
+
+    private static final int MAX_BATCH_SIZE = 8;
+
+    /**
+     * Time mplayer has to identify one file, same as the process per file.
+     */
+    private static final long FILE_TIMEOUT_MILLIS = 5000;
+
+    private static final long IDLE_TIMEOUT_MILLIS = 60000;
+
+    private static final int CACHE_SIZE = 1000;
+
+    private static final MPlayerProbe instance = new MPlayerProbe();
+
+    public static MPlayerProbe instance() {
+        return instance;
+    }
+
+    private final BlockingQueue<Request> requests;
+    private final Map<String, Map<String, String>> cache;
+    private final List<Worker> workers;
+    private boolean started;
+
+    private final AtomicLong hits;
+    private final AtomicLong probes;
+    private final AtomicLong processes;
+
+    private MPlayerProbe() {
+        this.requests = new LinkedBlockingQueue<Request>();
+        this.cache = Collections.synchronizedMap(new FixedsizeForgetfulHashMap<String, Map<String, String>>(CACHE_SIZE));
+        this.workers = new ArrayList<Worker>(POOL_SIZE);
+
+        this.hits = new AtomicLong(0);
+        this.probes = new AtomicLong(0);
+        this.processes = new AtomicLong(0);
+    }
+
+    /**
+     * Returns the properties of the file, as {@link MPlayer#getProperties(String)}.
+     * Blocks until mplayer identifies the file, returns an empty map if it
+     * can't or if mplayer is not available.
+     */
+    public Map<String, String> getProperties(File file) {
+        if (MPlayerInstance.getBinaryPath() == null) {
+            return Collections.emptyMap();
+        }
+
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+
+        Map<String, String> properties = cache.get(key);
+        if (properties != null) {
+            hits.incrementAndGet();
+            return properties;
+        }
+
+        start();
+
+        Request r = new Request(file.getAbsolutePath());
+        requests.offer(r);
+
+        try {
+            // the batch of another thread could be in front
+            if (!r.done.await(FILE_TIMEOUT_MILLIS * (MAX_BATCH_SIZE + 1), TimeUnit.MILLISECONDS)) {
+                r.cancelled = true;
+                return Collections.emptyMap();
+            }
+        } catch (InterruptedException e) {
+            r.cancelled = true;
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        }
+
+        if (r.properties == null) {
+            return Collections.emptyMap();
+        }
+
+        properties = Collections.unmodifiableMap(r.properties);
+        cache.put(key, properties);
+
+        return properties;
+    }
+
+    /**
+     * Number of requests answered from the cache.
+     */
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of files identified by mplayer.
+     */
+    public long getProbes() {
+        return probes.get();
+    }
+
+    /**
+     * Number of mplayer processes started so far.
+     */
+    public long getProcessesStarted() {
+        return processes.get();
+    }
+
+    private synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            Worker w = new Worker();
+            workers.add(w);
+
+            Thread t = new Thread(w, "MPlayerProbe-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread("MPlayerProbe-Shutdown") {
+            @Override
+            public void run() {
+                synchronized (MPlayerProbe.this) {
+                    for (Worker w : workers) {
+                        w.stopProcess();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Splits the output of a batch by the ANS_ answers, one per file, and
+     * reads the properties of each file. A file mplayer can't load gets an
+     * error answer and no properties.
+     *
+     * @return the properties in the order of the paths, null if the number
+     *         of answers is not the number of files or an answer is for
+     *         another file of the batch
+     */
+    static List<Map<String, String>> parseBatch(List<String> paths, List<String> lines) {
+        List<Map<String, String>> results = new ArrayList<Map<String, String>>(paths.size());
+
+        Map<String, String> properties = new HashMap<String, String>();
+        String lastKey = null;
+
+        for (String line : lines) {
+            if (line.startsWith("ANS_")) {
+                int i = results.size();
+                if (i >= paths.size()) {
+                    return null;
+                }
+                if (line.startsWith("ANS_path=")) {
+                    String path = line.substring("ANS_path=".length());
+                    if (!path.equals(paths.get(i)) && paths.contains(path)) {
+                        return null;
+                    }
+                }
+
+                results.add(properties);
+                properties = new HashMap<String, String>();
+                lastKey = null;
+                continue;
+            }
+
+            String[] kv = line.split("=");
+            if (kv.length < 2) {
+                continue;
+            }
+
+            if (line.startsWith("ID_CLIP_INFO_NAME")) {
+                lastKey = kv[1];
+            } else if (line.startsWith("ID_CLIP_INFO_VALUE")) {
+                if (lastKey != null) {
+                    properties.put(lastKey, kv[1]);
+                    lastKey = null;
+                }
+            } else if (line.startsWith("ID_")) {
+                properties.put(kv[0], kv[1]);
+            }
+        }
+
+        return results.size() == paths.size() ? results : null;
+    }
+
+    /**
+     * Escapes the path for a quoted argument of a slave command.
+     */
+    private static String quote(String path) {
+        return "\"" + path.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static final class Request {
+
+        public final String path;
+        public final CountDownLatch done;
+
+        public volatile Map<String, String> properties;
+        public volatile boolean cancelled;
+
+        public Request(String path) {
+            this.path = path;
+            this.done = new CountDownLatch(1);
+        }
+    }
+
+    /**
+     * Owns one mplayer process, feeds it the requests of the queue.
+     */
+    private final class Worker implements Runnable {
+
+        private Process process;
+        private Writer stdIn;
+        private BlockingQueue<String> stdOut;
+
+        @Override
+        public void run() {
+            List<Request> batch = new ArrayList<Request>(MAX_BATCH_SIZE);
+
+            while (true) {
+                try {
+                    Request r = requests.poll(IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (r == null) {
+                        stopProcess();
+                        r = requests.take();
+                    }
+
+                    batch.clear();
+                    if (!r.cancelled) {
+                        batch.add(r);
+                    }
+                    while (batch.size() < MAX_BATCH_SIZE && (r = requests.poll()) != null) {
+                        if (!r.cancelled) {
+                            batch.add(r);
+                        }
+                    }
+
+                    if (!batch.isEmpty()) {
+                        identify(batch);
+                    }
+                } catch (InterruptedException e) {
+                    stopProcess();
+                    return;
+                } catch (Throwable e) {
+                    LOG.warn("Error identifying files with mplayer", e);
+                } finally {
+                    for (Request r : batch) {
+                        r.done.countDown();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Loads all the files of the batch at once. Each load is followed by
+         * a property query, its ANS_ answer marks the end of the output of
+         * the file.
+         */
+        private void identify(List<Request> batch) throws IOException, InterruptedException {
+            startProcess();
+
+            List<String> paths = new ArrayList<String>(batch.size());
+            StringBuilder commands = new StringBuilder();
+            for (Request r : batch) {
+                paths.add(r.path);
+                commands.append("loadfile ").append(quote(r.path)).append('\n');
+                commands.append("get_property path\n");
+            }
+            stdIn.write(commands.toString());
+            stdIn.flush();
+
+            List<Map<String, String>> results = parseBatch(paths, readAnswers(batch.size()));
+
+            if (results == null) {
+                // what is left in the output belongs to no file, start over
+                stopProcess();
+
+                if (batch.size() > 1) {
+                    LOG.warn("mplayer answers don't match the files of the batch, identifying them one by one");
+                    for (Request r : batch) {
+                        identify(Collections.singletonList(r));
+                    }
+                } else {
+                    LOG.warn("mplayer did not identify the file in time: " + batch.get(0).path);
+                }
+                return;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                Request r = batch.get(i);
+                r.properties = results.get(i);
+                r.done.countDown();
+                probes.incrementAndGet();
+            }
+        }
+
+        /**
+         * Reads the output until the number of answers, the process dies or
+         * an answer takes longer than {@link #FILE_TIMEOUT_MILLIS}.
+         */
+        private List<String> readAnswers(int answers) throws InterruptedException {
+            List<String> lines = new ArrayList<String>();
+
+            int n = 0;
+            long deadline = System.currentTimeMillis() + FILE_TIMEOUT_MILLIS;
+
+            while (n < answers) {
+                long wait = deadline - System.currentTimeMillis();
+                String line = wait > 0 ? stdOut.poll(wait, TimeUnit.MILLISECONDS) : null;
+
+                if (line == null || line.startsWith("ID_EXIT")) {
+                    break; // stuck or dead
+                }
+
+                lines.add(line);
+
+                if (line.startsWith("ANS_")) {
+                    n++;
+                    deadline = System.currentTimeMillis() + FILE_TIMEOUT_MILLIS;
+                }
+            }
+
+            return lines;
+        }
+
+        private synchronized void startProcess() throws IOException {
+            if (process != null) {
+                return;
+            }
+
+            List<String> cmdList = new ArrayList<String>();
+
+            cmdList.add(MPlayerInstance.getBinaryPath().getAbsolutePath());
+
+            cmdList.add("-slave");
+            cmdList.add("-idle");
+            cmdList.add("-quiet");
+            cmdList.add("-identify");
+            cmdList.add("-prefer-ipv4");
+            cmdList.add("-osdlevel");
+            cmdList.add("0");
+            cmdList.add("-noautosub");
+            cmdList.add("-vo");
+            cmdList.add("null");
+            cmdList.add("-ao");
+            cmdList.add("null");
+            cmdList.add("-frames");
+            cmdList.add("0");
+
+            final Process p = new ProcessBuilder(cmdList).redirectErrorStream(true).start();
+            final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+            Thread reader = new Thread("MPlayerProbe Console Out Reader") {
+                public void run() {
+                    try {
+                        BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
+                        String line;
+                        while ((line = br.readLine()) != null) {
+                            lines.offer(line);
+                        }
+                    } catch (Exception e) {
+                        // process destroyed
+                    }
+                    lines.offer("ID_EXIT");
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+
+            process = p;
+            stdIn = new OutputStreamWriter(p.getOutputStream());
+            stdOut = lines;
+
+            processes.incrementAndGet();
+        }
+
+        private synchronized void stopProcess() {
+            if (process == null) {
+                return;
+            }
+            try {
+                stdIn.write("quit\n");
+                stdIn.flush();
+            } catch (Throwable e) {
+                // already dead
+            }
+            process.destroy();
+            process = null;
+            stdIn = null;
+            stdOut = null;
+        }
+    }
+}
@@ -137,6 +137,14 @@ public class PeerHttpUpload implements UploadTransfer {
         updateAverageUploadSpeed();
     }
 
+    /**
+     * Used when the peer resumes a transfer with a ranged request.
+     */
+    public void setOffset(long offset) {
+        bytesSent = offset;
+        totalSentSinceLastSpeedStamp = offset;
+    }
+
     public void complete() {
         status = STATUS_COMPLETE;
         cancel();
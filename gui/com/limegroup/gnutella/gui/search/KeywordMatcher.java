@@ -0,0 +1,236 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Matches the keywords of a query against the names of the search results.
+ *
+ * Compiled once per search tab and shared by the search threads. Names are
+ * sanitized and normalized in a couple of passes over their chars, without
+ * regular expressions, and a name matches when it contains every keyword.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class KeywordMatcher {
+
+    /**
+     * Noise in names and queries, replaced by a space.
+     */
+    private static final String NOISE_CHARS = "\\/%_;-.()[]\n\rÐ&~{}*@^'=!,¡|#ÀÁ";
+
+    private static final String[] NOISE_WORDS = { ".torrent", "www.", ".com", ".net" };
+
+    private static final boolean[] NOISE_TABLE = new boolean[256];
+
+    static {
+        for (int i = 0; i < NOISE_CHARS.length(); i++) {
+            NOISE_TABLE[NOISE_CHARS.charAt(i)] = true;
+        }
+    }
+
+    private final String[] keywords;
+
+    private KeywordMatcher(String[] keywords) {
+        this.keywords = keywords;
+    }
+
+    /**
+     * Compiles the query in its normalized keywords.
+     */
+    public static KeywordMatcher compile(String query) {
+        String str = sanitize(query).toLowerCase(Locale.US);
+
+        Set<String> keywords = new LinkedHashSet<String>();
+        int start = 0;
+        for (int i = 0; i <= str.length(); i++) {
+            if (i == str.length() || str.charAt(i) == ' ') {
+                if (i > start) {
+                    keywords.add(normalize(str.substring(start, i)));
+                }
+                start = i + 1;
+            }
+        }
+
+        return new KeywordMatcher(keywords.toArray(new String[keywords.size()]));
+    }
+
+    public boolean isEmpty() {
+        return keywords.length == 0;
+    }
+
+    /**
+     * Returns true if the text, once sanitized and normalized, contains every keyword.
+     */
+    public boolean matches(CharSequence text) {
+        String str = normalize(sanitize(text));
+
+        for (String k : keywords) {
+            if (str.indexOf(k) == -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Strips html tags and entities, then replaces the noise words and chars
+     * by a single space.
+     */
+    static String sanitize(CharSequence text) {
+        // html tags, then the entities left
+        CharSequence str = strip(strip(text, '<', '>'), '&', ';');
+
+        // noise, collapsing spaces
+        int len = str.length();
+        char[] chars = new char[len];
+        int n = 0;
+        boolean space = true;
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            int skip = noiseWordLength(str, i);
+            if (skip > 0) {
+                i += skip - 1;
+                c = ' ';
+            } else if ((c < 256 && NOISE_TABLE[c]) || isSpace(c)) {
+                c = ' ';
+            }
+
+            if (c == ' ') {
+                if (!space) {
+                    chars[n++] = c;
+                    space = true;
+                }
+            } else {
+                chars[n++] = c;
+                space = false;
+            }
+        }
+
+        return new String(chars, 0, n).trim();
+    }
+
+    /**
+     * Decomposes the accented chars, drops the combining marks and lowercases.
+     */
+    static String normalize(String str) {
+        boolean ascii = true;
+        for (int i = 0; i < str.length() && ascii; i++) {
+            ascii = str.charAt(i) < 128;
+        }
+        if (ascii) {
+            return str.toLowerCase(Locale.US);
+        }
+
+        str = Normalizer.normalize(str, Normalizer.Form.NFKD);
+
+        char[] chars = new char[str.length()];
+        int n = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= '\u0300' && c <= '\u036f') { // combining diacritical marks
+                continue;
+            }
+            chars[n++] = c;
+        }
+
+        return new String(chars, 0, n).toLowerCase(Locale.US);
+    }
+
+    /**
+     * Removes every run from <code>open</code> to the first <code>close</code>
+     * after it, if there is no line break in between.
+     */
+    private static CharSequence strip(CharSequence text, char open, char close) {
+        int len = text.length();
+        StringBuilder sb = null;
+        int copied = 0;
+
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) != open) {
+                continue;
+            }
+            int end = -1;
+            for (int j = i + 1; j < len; j++) {
+                char c = text.charAt(j);
+                if (c == close) {
+                    end = j;
+                    break;
+                }
+                if (isLineBreak(c)) {
+                    break;
+                }
+            }
+            if (end != -1) {
+                if (sb == null) {
+                    sb = new StringBuilder(len);
+                }
+                sb.append(text, copied, i);
+                copied = end + 1;
+                i = end;
+            }
+        }
+
+        if (sb == null) {
+            return text;
+        }
+        sb.append(text, copied, len);
+        return sb;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static int noiseWordLength(CharSequence text, int offset) {
+        char c = text.charAt(offset);
+        if (c != '.' && c != 'w') {
+            return 0;
+        }
+        for (String w : NOISE_WORDS) {
+            if (regionMatches(text, offset, w)) {
+                return w.length();
+            }
+        }
+        return 0;
+    }
+
+    private static boolean regionMatches(CharSequence text, int offset, String w) {
+        if (offset + w.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < w.length(); i++) {
+            if (text.charAt(offset + i) != w.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
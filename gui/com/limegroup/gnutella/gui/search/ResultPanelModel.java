@@ -16,8 +16,14 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
+import org.limewire.collection.IndexedTreeList;
+
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.torrent.TorrentCrawledSearchResult;
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
 import com.limegroup.gnutella.gui.tables.LimeTableColumn;
@@ -43,17 +49,37 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected final SearchTableColumns COLUMNS = new SearchTableColumns();
 
     /**
-     * HashMap for quick access to indexes based on SHA1 info.
+     * The lines, kept in an indexed tree so that inserting at any row and
+     * finding the row of a line are O(log n).
+     */
+    private final IndexedTreeList<SearchResultDataLine> _lines;
+
+    /**
+     * HashMap for quick access to lines based on the info hash. Holds the
+     * lines kept, shown or hidden by the filter, the results of the same
+     * torrent coming from other search engines are merged into them.
      */
-    private final Map<String, Integer> _indexes = new HashMap<String, Integer>();
+    private final Map<String, SearchResultDataLine> _indexes = new HashMap<String, SearchResultDataLine>();
 
     private int _numResults;
 
+    /**
+     * True while a batch is added, row insert events are held until the end.
+     */
+    private boolean _batching;
+
+    /**
+     * True if results were merged into existing lines during the batch.
+     */
+    private boolean _batchMerged;
+
     /**
      * Constructs a new ResultPanelModel with the given MetadataModel.
      */
     ResultPanelModel() {
         super(SearchResultDataLine.class);
+        _lines = new IndexedTreeList<SearchResultDataLine>();
+        _list = _lines;
     }
 
     /**
@@ -104,12 +130,9 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      * @param row  the index of the row to remove.
      */
     public void remove(int row) {
-        String sha1 = getHash(row);
-        if (sha1 != null)
-            _indexes.remove(sha1);
+        unregister(get(row));
         super.remove(row);
         _numResults -= 1;
-        remapIndexes(row);
     }
 
     /**
@@ -119,6 +142,135 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
         return add(o, getRowCount());
     }
 
+    /**
+     * Merges the result into the line of the same torrent if there is one,
+     * the line stays where it is.
+     */
+    public int add(UISearchResult o, int row) {
+        SearchResultDataLine line = merge(o);
+        if (line == null) {
+            return super.add(o, row);
+        }
+
+        if (_batching) {
+            _batchMerged = true;
+        } else {
+            int idx = _lines.indexOf(line);
+            if (idx != -1)
+                fireTableRowsUpdated(idx, idx);
+        }
+        return -1;
+    }
+
+    /**
+     * Merges the result into the line of the same torrent if there is one,
+     * and moves the line to its new sorted position.
+     */
+    public int addSorted(UISearchResult o) {
+        SearchResultDataLine line = merge(o);
+        if (line == null) {
+            return super.addSorted(o);
+        }
+
+        int idx = _lines.indexOf(line);
+        if (idx != -1) {
+            _lines.remove(idx);
+            int to = getSortedPosition(line);
+            _lines.add(to, line);
+
+            if (!_batching) {
+                fireTableRowsDeleted(idx, idx);
+                fireTableRowsInserted(to, to);
+            }
+        }
+        if (_batching)
+            _batchMerged = true;
+        return -1;
+    }
+
+    /**
+     * Registers the new line by info hash, for the merge.
+     */
+    public SearchResultDataLine getNewDataLine(UISearchResult o) {
+        SearchResultDataLine dl = super.getNewDataLine(o);
+        String key = getMergeKey(o);
+        if (key != null)
+            _indexes.put(key, dl);
+        return dl;
+    }
+
+    /**
+     * Forgets the info hash of a line that is dropped, so later results of
+     * the same torrent get a line of their own instead of being merged into
+     * a line that is nowhere.
+     */
+    protected void unregister(SearchResultDataLine line) {
+        String key = getMergeKey(line.getSearchResult());
+        if (key != null && _indexes.get(key) == line)
+            _indexes.remove(key);
+    }
+
+    /**
+     * Returns true if the result has its own line, false if it was merged
+     * into the line of a result of the same torrent.
+     */
+    boolean isPrimary(UISearchResult sr) {
+        String key = getMergeKey(sr);
+        if (key == null)
+            return true;
+        SearchResultDataLine line = _indexes.get(key);
+        return line == null || line.getSearchResult() == sr;
+    }
+
+    /**
+     * Adds all the results as one batch, at the end of the list or at their
+     * sorted position. Listeners are notified once: with a single inserted
+     * range if the lines were appended, with a data changed event if they
+     * were inserted sorted.
+     *
+     * @return the number of lines added to the visible list
+     */
+    int addAll(List<UISearchResult> results, boolean sorted) {
+        int first = getRowCount();
+        _batching = true;
+        _batchMerged = false;
+        try {
+            for (UISearchResult sr : results) {
+                if (sorted) {
+                    addSorted(sr);
+                } else {
+                    add(sr);
+                }
+            }
+        } finally {
+            _batching = false;
+        }
+
+        int added = getRowCount() - first;
+        if (sorted) {
+            if (added > 0 || _batchMerged) {
+                fireTableDataChanged();
+            }
+        } else {
+            if (_batchMerged && first > 0) {
+                fireTableRowsUpdated(0, first - 1);
+            }
+            if (added > 0) {
+                fireTableRowsInserted(first, first + added - 1);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Holds the per row events while a batch is added.
+     */
+    public void fireTableRowsInserted(int firstRow, int lastRow) {
+        if (!_batching) {
+            super.fireTableRowsInserted(firstRow, lastRow);
+        }
+    }
+
     /**
      * Override to fix compile error on OSX.
      */
@@ -135,37 +287,38 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     }
 
     /**
-     * Maintains the indexes HashMap & MetadataModel.
+     * Counts the line, it's already in the indexes HashMap.
      */
     public int add(SearchResultDataLine tl, int row) {
         _numResults += 1;
-        String sha1 = tl.getHash();
-        if (sha1 != null)
-            _indexes.put(sha1, new Integer(row));
-        int addedAt = super.add(tl, row);
-        remapIndexes(addedAt + 1);
-        return addedAt;
+        return super.add(tl, row);
     }
 
     /**
      * Gets the row this DataLine is at.
      */
     public int getRow(SearchResultDataLine tl) {
-        String sha1 = tl.getHash();
-        if (sha1 != null)
-            return fastMatch(sha1);
+        String key = getMergeKey(tl.getSearchResult());
+        if (key != null)
+            return fastMatch(key);
         else
-            return super.getRow(tl);
+            return _lines.indexOf(tl);
+    }
+
+    /**
+     * Finds the sorted position walking down the tree, without a binary
+     * search over get(int).
+     */
+    public int getSortedPosition(SearchResultDataLine dl) {
+        return _lines.insertionPoint(dl, this);
     }
 
     /** 
-     * Overrides the default sort to maintain the indexes HashMap,
-     * according to the current sort column and order.
+     * Overrides the default sort to sort the tree in one pass. The indexes
+     * HashMap points to lines, not rows, so it doesn't change.
      */
     protected void doResort() {
-        super.doResort();
-        _indexes.clear(); // it's easier & quicker to just clear & re-input
-        remapIndexes(0);
+        _lines.sort(this);
     }
 
     /**
@@ -185,33 +338,24 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     }
 
     /**
-     * Remaps the indexes, starting at 'start' and going to the end of
-     * the list.  This is needed for when rows are added to the middle of
-     * the list to maintain the correct rows per objects.
-     */
-    private void remapIndexes(int start) {
-        remapIndexes(start, getRowCount());
-    }
-
-    /**
-     * Remaps the indexes, starting at 'start' and going to 'end'.
-     * This is useful for when we move a row from end to start or vice versa.
+     * Replaces all the lines at once, in the given order, without firing
+     * any event. Used to re-filter without inserting the lines one by one,
+     * the caller is responsible for notifying the table.
      */
-    private void remapIndexes(int start, int end) {
-        for (int i = start; i < end; i++) {
-            String sha1 = getHash(i);
-            if (sha1 != null)
-                _indexes.put(sha1, new Integer(i));
+    protected void setLines(List<SearchResultDataLine> lines) {
+        _lines.clear();
+        for (SearchResultDataLine line : lines) {
+            _lines.add(line);
         }
+        _numResults = lines.size();
     }
 
     /**
-     * Gets the SHA1 URN for a row.
+     * Clears the indexes HashMap too.
      */
-    private String getHash(int idx) {
-        if (idx >= getRowCount())
-            return null;
-        return get(idx).getHash();
+    public void clear() {
+        _indexes.clear();
+        super.clear();
     }
 
     /** Compares the spam difference between the two rows. */
@@ -248,12 +392,42 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     /**
      * Fast match -- lookup in the table.
      */
-    private int fastMatch(String sha1) {
-        Integer idx = _indexes.get(sha1);
-        if (idx == null)
+    private int fastMatch(String key) {
+        SearchResultDataLine line = _indexes.get(key);
+        if (line == null)
             return -1;
         else
-            return idx.intValue();
+            return _lines.indexOf(line);
+    }
+
+    /**
+     * Adds the result to the line of the same torrent, if there is one.
+     */
+    private SearchResultDataLine merge(UISearchResult sr) {
+        String key = getMergeKey(sr);
+        if (key == null)
+            return null;
+        SearchResultDataLine line = _indexes.get(key);
+        if (line != null)
+            line.addNewResult(sr);
+        return line;
+    }
+
+    /**
+     * The info hash of the torrent, plus the path for a file crawled from it.
+     * Null if the result is not a torrent.
+     */
+    private static String getMergeKey(UISearchResult sr) {
+        String hash = sr.getHash();
+        if (hash == null || hash.length() == 0)
+            return null;
+        hash = hash.toLowerCase(Locale.US);
+
+        SearchResult r = sr.getSearchResult();
+        if (r instanceof TorrentCrawledSearchResult)
+            return hash + "/" + ((TorrentCrawledSearchResult) r).getRelativePath();
+        else
+            return hash;
     }
 
     public int getTotalResults() {
@@ -16,16 +16,9 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.io.File;
-import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -37,7 +30,6 @@ import org.limewire.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.frostwire.gui.filters.SearchFilter;
 import com.frostwire.gui.filters.SearchFilterFactory;
 import com.frostwire.gui.filters.SearchFilterFactoryImpl;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
@@ -49,6 +41,7 @@ import com.frostwire.search.SearchManagerImpl;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.TieredCrawlCache;
 import com.frostwire.search.VuzeMagnetDownloader;
 import com.frostwire.search.archiveorg.ArchiveorgCrawledSearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
@@ -111,6 +104,8 @@ public final class SearchMediator {
 
     private final SearchManager manager;
 
+    private final SearchResultQueue resultQueue;
+
     /**
      * This instance handles the display of all search results.
      * TODO: Changed to package-protected for testing to add special results
@@ -146,13 +141,15 @@ public final class SearchMediator {
         });
 
         try {
-            CrawlPagedWebSearchPerformer.setCache(new DatabaseCrawlCache());
+            CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(new DatabaseCrawlCache(), SearchSettings.SMART_SEARCH_CACHE_MEMORY_BYTES.getValue()));
         } catch (Throwable t) {
             LOG.error("could not set database crawl cache", t);
         }
 
         CrawlPagedWebSearchPerformer.setMagnetDownloader(new VuzeMagnetDownloader());
 
+        this.resultQueue = new SearchResultQueue();
+
         this.manager = new SearchManagerImpl(SEARCH_MANAGER_NUM_THREADS);
         this.manager.registerListener(new ManagerListener());
     }
@@ -260,20 +257,20 @@ public final class SearchMediator {
         }
     }
 
-    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, KeywordMatcher matcher) {
         List<SearchResult> list;
 
-        if (searchTokens == null || searchTokens.isEmpty()) {
+        if (matcher == null || matcher.isEmpty()) {
             list = Collections.emptyList();
         } else {
-            list = filter(results, searchTokens);
+            list = filter(results, matcher);
         }
 
         return list;
     }
 
-    private List<SearchResult> filter(List<? extends SearchResult> results, List<String> searchTokens) {
-        List<SearchResult> list = new LinkedList<SearchResult>();
+    private List<SearchResult> filter(List<? extends SearchResult> results, KeywordMatcher matcher) {
+        List<SearchResult> list = new ArrayList<SearchResult>(results.size());
 
         try {
             for (SearchResult sr : results) {
@@ -281,7 +278,7 @@ public final class SearchMediator {
                     // special case for youtube
                     if (sr instanceof YouTubeCrawledSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(searchTokens), sr)) {
+                    } else if (filter(matcher, sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -296,7 +293,7 @@ public final class SearchMediator {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
+    private boolean filter(KeywordMatcher matcher, SearchResult sr) {
         StringBuilder sb = new StringBuilder();
 
         sb.append(sr.getDisplayName());
@@ -308,59 +305,7 @@ public final class SearchMediator {
             sb.append(((FileSearchResult) sr).getFilename());
         }
 
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
-    }
-
-    private static String stripHtml(String str) {
-        str = str.replaceAll("\\<.*?>", "");
-        str = str.replaceAll("\\&.*?\\;", "");
-        return str;
-    }
-
-    private String sanitize(String str) {
-        str = stripHtml(str);
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
-    }
-
-    private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
+        return matcher.matches(sb);
     }
 
     private static void updateSearchIcon(final long token, final boolean active) {
@@ -405,8 +350,8 @@ public final class SearchMediator {
      * standard query string, and XML query string.
      */
     private static SearchResultMediator addResultTab(long token, SearchInformation info) {
-        List<String> searchTokens = instance().tokenize(info.getQuery());
-        return getSearchResultDisplayer().addResultTab(token, searchTokens, info);
+        KeywordMatcher matcher = KeywordMatcher.compile(info.getQuery());
+        return getSearchResultDisplayer().addResultTab(token, matcher, info);
     }
 
     /**
@@ -489,6 +434,14 @@ public final class SearchMediator {
 
     void stopSearch(long token) {
         manager.stop(token);
+        resultQueue.discard(token);
+    }
+
+    /**
+     * Queue of the results waiting to be displayed, see its back-pressure metrics.
+     */
+    SearchResultQueue getResultQueue() {
+        return resultQueue;
     }
 
     public void shutdown() {
@@ -531,10 +484,19 @@ public final class SearchMediator {
         return SEARCH_FILTER_FACTORY;
     }
 
-    private void onFinished(long token) {
-        SearchResultMediator rp = getResultPanelForGUID(token);
-        updateSearchIcon(token, false);
-        rp.setToken(0); // to identify that the search is stopped (needs refactor)
+    private void onFinished(final long token) {
+        GUIMediator.safeInvokeLater(new Runnable() {
+            public void run() {
+                // the results still queued go in before the panel is marked as stopped
+                resultQueue.flush(token);
+
+                SearchResultMediator rp = getResultPanelForGUID(token);
+                if (rp != null) {
+                    rp.updateSearchIcon(false);
+                    rp.setToken(0); // to identify that the search is stopped (needs refactor)
+                }
+            }
+        });
     }
 
     private final class ManagerListener implements SearchManagerListener {
@@ -544,36 +506,25 @@ public final class SearchMediator {
             if (!performer.isStopped()) {
                 //System.out.println("Received results: " + performer.getToken() + " \t- " + results.size());
 
-                final long token = performer.getToken();
-                final SearchResultMediator rp = getResultPanelForGUID(token);
+                long token = performer.getToken();
+                SearchResultMediator rp = getResultPanelForGUID(token);
+
+                if (rp == null || rp.isStopped()) {
+                    return;
+                }
 
                 @SuppressWarnings("unchecked")
-                List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getSearchTokens());
+                List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getKeywordMatcher());
 
-                if (rp != null && !rp.isStopped() && filtered != null && !filtered.isEmpty()) {
+                if (filtered != null && !filtered.isEmpty()) {
 
                     SearchEngine se = SearchEngine.getSearchEngineByName(filtered.get(0).getSource());
                     if (se == null) {
                         return;
                     }
 
-                    final List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
-
-                    GUIMediator.safeInvokeAndWait(new Runnable() {
-                        public void run() {
-                            try {
-                                SearchFilter filter = getSearchFilterFactory().createFilter();
-                                for (UISearchResult sr : uiResults) {
-                                    if (filter.allow(sr)) {
-                                        getSearchResultDisplayer().addQueryResult(token, sr, rp);
-                                    }
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                    });
+                    // the UI picks them up in batches, the search thread doesn't wait for it
+                    resultQueue.offer(token, convertResults(filtered, se, rp.getQuery()));
                 }
             }
         }
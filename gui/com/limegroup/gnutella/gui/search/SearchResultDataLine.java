@@ -15,6 +15,7 @@
 
 package com.limegroup.gnutella.gui.search;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -61,6 +62,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
     private SearchResultActionsHolder actionsHolder;
     private SearchResultNameHolder name;
     private String seeds;
+    private int maxSeeds;
     private Icon icon;
     private SizeHolder size;
     private SourceHolder source;
@@ -80,6 +82,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
         addedOn = sr.getCreationTime() > 0 ? new Date(sr.getCreationTime()) : null;
         actionsHolder = new SearchResultActionsHolder(sr);
         name = new SearchResultNameHolder(sr);
+        maxSeeds = RESULT.getSeeds();
         seeds = RESULT.getSeeds() <= 0 || !(RESULT instanceof TorrentUISearchResult) ? "" : String.valueOf(RESULT.getSeeds());
         icon = getIcon();
         size = new SizeHolder(getSize());
@@ -123,6 +126,24 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
         }
     }
 
+    /**
+     * Adds the result of the same torrent found by another search engine.
+     * The line keeps its result for the download and details, shows the
+     * highest seeds count and lists every source.
+     */
+    void addNewResult(UISearchResult sr) {
+        if (_otherResults == null) {
+            _otherResults = new ArrayList<UISearchResult>(2);
+        }
+        _otherResults.add(sr);
+
+        if (sr.getSeeds() > maxSeeds) {
+            maxSeeds = sr.getSeeds();
+            seeds = String.valueOf(maxSeeds);
+        }
+        source = new SourceHolder(RESULT, _otherResults);
+    }
+
     /**
      * Determines if this line is launchable.
      */
@@ -281,7 +302,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
     }
 
     public int getSeeds() {
-        return RESULT.getSeeds();
+        return maxSeeds;
     }
 
     public String getHash() {
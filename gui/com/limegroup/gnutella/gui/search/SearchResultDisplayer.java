@@ -204,8 +204,8 @@ public final class SearchResultDisplayer implements RefreshListener {
      *  to the tabbed pane.  This is used both for normal searching 
      *  and browsing.  Returns the ResultPanel added.
      */
-    SearchResultMediator addResultTab(long token, List<String> searchTokens, SearchInformation info) {
-        SearchResultMediator panel = new SearchResultMediator(token, searchTokens, info);
+    SearchResultMediator addResultTab(long token, KeywordMatcher matcher, SearchInformation info) {
+        SearchResultMediator panel = new SearchResultMediator(token, matcher, info);
 
         if (MAIN_PANEL.getHeight() < SearchResultDisplayer.MIN_HEIGHT) {
             GUIMediator.instance().getMainFrame().resizeSearchTransferDivider(SearchResultDisplayer.MIN_HEIGHT);
@@ -334,23 +334,23 @@ public final class SearchResultDisplayer implements RefreshListener {
 
     /**
      * If i rp is no longer the i'th panel of this, returns silently. Otherwise
-     * adds line to rp under the given group. Updates the count on the tab in
-     * this and restarts the spinning lime.
+     * adds the lines to rp as one batch. Updates the count on the tab in
+     * this once.
      * 
      * @requires this is called from Swing thread, group is null or similar to
      *           line and already in rp
      * @modifies this
      */
-    void addQueryResult(long token, UISearchResult line, SearchResultMediator rp) {
+    void addQueryResults(long token, List<UISearchResult> lines, SearchResultMediator rp) {
         if (rp.isStopped()) {
             return;
         }
 
-        //Actually add the line.   Must obtain rp's monitor first.
+        //Actually add the lines.   Must obtain rp's monitor first.
         if (!rp.matches(token))//GUID of rp!=replyGuid
             throw new IllegalArgumentException("guids don't match");
 
-        rp.add(line);
+        rp.addAll(lines);
 
         int resultPanelIndex = -1;
         // Search for the ResultPanel to verify it exists.
@@ -360,8 +360,7 @@ public final class SearchResultDisplayer implements RefreshListener {
         if (resultPanelIndex == -1)
             return;
 
-        //Update index on tab.  Don't forget to add 1 since line hasn't
-        //actually been added!
+        //Update index on tab, once for the whole batch.
         tabbedPane.setTitleAt(resultPanelIndex, titleOf(rp));
     }
 
@@ -101,7 +101,10 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
      */
     private long token;
 
-    private final List<String> searchTokens;
+    /**
+     * Matches the keywords of the query against the crawled results.
+     */
+    private final KeywordMatcher matcher;
 
     /**
      * The CompositeFilter for this ResultPanel.
@@ -148,7 +151,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         SEARCH_INFO = SearchInformation.createKeywordSearch("", null, MediaType.getAnyTypeMediaType());
         FILTER = null;
         this.token = 0;
-        this.searchTokens = null;
+        this.matcher = null;
         setButtonEnabled(SearchButtons.TORRENT_DETAILS_BUTTON_INDEX, false);
         // disable dnd for overlay panel
         TABLE.setDragEnabled(false);
@@ -163,11 +166,11 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
      * @param guid the guid of the query.  Used to match results.
      * @param info the info of the search
      */
-    SearchResultMediator(long token, List<String> searchTokens, SearchInformation info) {
+    SearchResultMediator(long token, KeywordMatcher matcher, SearchInformation info) {
         super(SEARCH_TABLE);
         SEARCH_INFO = info;
         this.token = token;
-        this.searchTokens = searchTokens;
+        this.matcher = matcher;
         setupRealTable();
         resetFilters();
     }
@@ -855,8 +858,8 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         setButtonEnabled(SearchButtons.STOP_SEARCH_BUTTON_INDEX, active);
     }
 
-    List<String> getSearchTokens() {
-        return searchTokens;
+    KeywordMatcher getKeywordMatcher() {
+        return matcher;
     }
 
     public void updateFiltersPanel() {
@@ -876,4 +879,62 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
 
         schemaBox.updateCounters(o);
     }
+
+    /**
+     * Adds a batch of results, the table is notified once for the whole batch.
+     * 
+     * @return the number of lines added to the visible list
+     */
+    int addAll(List<UISearchResult> results) {
+        if (TABLE.isEditing()) {
+            TABLE.getCellEditor().cancelCellEditing();
+        }
+
+        boolean sorted = SETTINGS.REAL_TIME_SORT.getValue() && DATA_MODEL.isSorted();
+        int added;
+
+        if (sorted) {
+            // the lines are spread around the table, a data changed event
+            // drops the selection, so it's restored by line afterwards
+            int[] rows = TABLE.getSelectedRows();
+            SearchResultDataLine[] selected = new SearchResultDataLine[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                selected[i] = DATA_MODEL.get(rows[i]);
+            }
+
+            added = DATA_MODEL.addAll(results, true);
+
+            for (SearchResultDataLine line : selected) {
+                int row = DATA_MODEL.getRow(line);
+                if (row >= 0) {
+                    TABLE.addRowSelectionInterval(row, row);
+                }
+            }
+        } else {
+            boolean inView = TABLE.isSelectionVisible();
+            int first = DATA_MODEL.getRowCount();
+
+            added = DATA_MODEL.addAll(results, false);
+
+            if (added > 0) {
+                // same Java bug as in fixSelection, for the whole range
+                TABLE.removeRowSelectionInterval(first, first + added - 1);
+                int selected = TABLE.getSelectedRow();
+                if (selected >= 0 && selected < DATA_MODEL.getRowCount()) {
+                    TABLE.addRowSelectionInterval(selected, selected);
+                    if (inView) {
+                        TABLE.ensureRowVisible(selected);
+                    }
+                }
+            }
+        }
+
+        for (UISearchResult sr : results) {
+            if (DATA_MODEL.isPrimary(sr)) {
+                schemaBox.updateCounters(sr);
+            }
+        }
+
+        return added;
+    }
 }
\ No newline at end of file
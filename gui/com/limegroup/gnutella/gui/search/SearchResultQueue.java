@@ -0,0 +1,373 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.frostwire.gui.filters.SearchFilter;
+
+/**
+ * Queues the results of the search performers per token and hands them to the
+ * result panels in batches from the event dispatch thread.
+ *
+ * The search threads never wait for the UI, they only add to a queue. Results
+ * arriving close in time are coalesced in one flush, each flush adds at most
+ * {@link #MAX_BATCH_SIZE} lines per panel and gives the event thread back after
+ * {@link #FLUSH_SLICE_MILLIS}, the rest is left for the next flush.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SearchResultQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultQueue.class);
+
+    /**
+     * Delay before a flush, the results arriving meanwhile go in the same batch.
+     */
+    private static final int FLUSH_DELAY_MILLIS = 100;
+
+    /**
+     * Time of the event thread a flush can take before yielding.
+     */
+    private static final long FLUSH_SLICE_MILLIS = 30;
+
+    private static final int MAX_BATCH_SIZE = 250;
+
+    private final ConcurrentHashMap<Long, TokenQueue> queues;
+    private final AtomicBoolean flushScheduled;
+    private final Timer timer;
+
+    // back-pressure metrics
+    private final AtomicInteger peakPending;
+    private final AtomicLong queued;
+    private final AtomicLong added;
+    private final AtomicLong dropped;
+    private final AtomicLong flushes;
+    private final AtomicLong flushNanos;
+    private final AtomicLong maxWaitNanos;
+
+    public SearchResultQueue() {
+        this.queues = new ConcurrentHashMap<Long, TokenQueue>();
+        this.flushScheduled = new AtomicBoolean(false);
+
+        this.timer = new Timer(FLUSH_DELAY_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        this.timer.setRepeats(false);
+
+        this.peakPending = new AtomicInteger(0);
+        this.queued = new AtomicLong(0);
+        this.added = new AtomicLong(0);
+        this.dropped = new AtomicLong(0);
+        this.flushes = new AtomicLong(0);
+        this.flushNanos = new AtomicLong(0);
+        this.maxWaitNanos = new AtomicLong(0);
+    }
+
+    /**
+     * Queues the results of the search token, can be called from any thread.
+     */
+    public void offer(long token, List<UISearchResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+
+        TokenQueue q = queues.get(token);
+        if (q == null) {
+            TokenQueue newQueue = new TokenQueue();
+            q = queues.putIfAbsent(token, newQueue);
+            if (q == null) {
+                q = newQueue;
+            }
+        }
+
+        q.offer(results);
+
+        queued.addAndGet(results.size());
+        updatePeak(getPending());
+
+        scheduleFlush(false);
+    }
+
+    /**
+     * Forgets the results still queued for the token, they are not displayed.
+     */
+    public void discard(long token) {
+        TokenQueue q = queues.remove(token);
+        if (q != null) {
+            dropped.addAndGet(q.clear());
+        }
+    }
+
+    /**
+     * Adds to the panel everything queued for the token, regardless of the
+     * time slice. Must be called from the event thread.
+     */
+    public void flush(long token) {
+        TokenQueue q = queues.remove(token);
+        if (q != null) {
+            SearchFilter filter = SearchMediator.getSearchFilterFactory().createFilter();
+            while (!q.isEmpty()) {
+                if (!flush(token, q, filter)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of results queued and not yet displayed.
+     */
+    public int getPending() {
+        int n = 0;
+        for (TokenQueue q : queues.values()) {
+            n += q.size();
+        }
+        return n;
+    }
+
+    /**
+     * Highest number of results queued at the same time.
+     */
+    public int getPeakPending() {
+        return peakPending.get();
+    }
+
+    /**
+     * Number of results queued for the token and not yet displayed.
+     */
+    public int getPending(long token) {
+        TokenQueue q = queues.get(token);
+        return q != null ? q.size() : 0;
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Number of results handed to the panels (some may have been hidden by the panel filters).
+     */
+    public long getAdded() {
+        return added.get();
+    }
+
+    /**
+     * Number of results discarded because the search was stopped before display.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Average time in milliseconds the event thread spent per flush.
+     */
+    public double getAverageFlushMillis() {
+        long n = flushes.get();
+        return n > 0 ? flushNanos.get() / (n * 1000000.0) : 0;
+    }
+
+    /**
+     * Longest time in milliseconds a result waited in the queue.
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1000000;
+    }
+
+    private void scheduleFlush(boolean immediate) {
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (immediate) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                });
+            } else {
+                timer.restart();
+            }
+        }
+    }
+
+    private void flush() {
+        long start = System.nanoTime();
+        long deadline = start + FLUSH_SLICE_MILLIS * 1000000;
+
+        try {
+            SearchFilter filter = SearchMediator.getSearchFilterFactory().createFilter();
+
+            Iterator<Entry<Long, TokenQueue>> it = queues.entrySet().iterator();
+            while (it.hasNext() && System.nanoTime() < deadline) {
+                Entry<Long, TokenQueue> e = it.next();
+                if (!flush(e.getKey(), e.getValue(), filter)) {
+                    it.remove();
+                }
+            }
+        } catch (Throwable e) {
+            LOG.error("Error adding search results to the result panels", e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            flushes.incrementAndGet();
+            flushNanos.addAndGet(elapsed);
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Flushed search results in %d ms, pending: %d, peak: %d, added: %d, dropped: %d", elapsed / 1000000, getPending(), getPeakPending(), getAdded(), getDropped()));
+            }
+
+            flushScheduled.set(false);
+            // anything left or queued during the flush, the rest of the
+            // slice was used, keep going after the pending UI events
+            if (getPending() > 0) {
+                scheduleFlush(true);
+            }
+        }
+    }
+
+    /**
+     * Adds up to one batch of the queue to the panel of the token.
+     *
+     * @return false if the panel is gone or stopped, and the queue was cleared
+     */
+    private boolean flush(long token, TokenQueue q, SearchFilter filter) {
+        SearchResultMediator rp = SearchMediator.getResultPanelForGUID(token);
+
+        if (rp == null || rp.isStopped() || !rp.matches(token)) {
+            dropped.addAndGet(q.clear());
+            return false;
+        }
+
+        List<UISearchResult> batch = new ArrayList<UISearchResult>(Math.min(q.size(), MAX_BATCH_SIZE));
+        long wait = q.poll(batch, MAX_BATCH_SIZE);
+
+        long max = maxWaitNanos.get();
+        while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+            max = maxWaitNanos.get();
+        }
+
+        List<UISearchResult> allowed = new ArrayList<UISearchResult>(batch.size());
+        for (UISearchResult sr : batch) {
+            if (filter.allow(sr)) {
+                allowed.add(sr);
+            }
+        }
+
+        if (!allowed.isEmpty()) {
+            SearchMediator.getSearchResultDisplayer().addQueryResults(token, allowed, rp);
+            added.addAndGet(allowed.size());
+        }
+
+        return true;
+    }
+
+    private void updatePeak(int n) {
+        int peak = peakPending.get();
+        while (n > peak && !peakPending.compareAndSet(peak, n)) {
+            peak = peakPending.get();
+        }
+    }
+
+    private static final class TokenQueue {
+
+        private final Queue<Item> items;
+        private final AtomicInteger size;
+
+        public TokenQueue() {
+            this.items = new ConcurrentLinkedQueue<Item>();
+            this.size = new AtomicInteger(0);
+        }
+
+        public void offer(List<UISearchResult> results) {
+            long now = System.nanoTime();
+            for (UISearchResult sr : results) {
+                items.offer(new Item(sr, now));
+            }
+            size.addAndGet(results.size());
+        }
+
+        /**
+         * Moves up to max results to the list.
+         *
+         * @return the time in nanoseconds the oldest result moved waited, 0 if none
+         */
+        public long poll(List<UISearchResult> list, int max) {
+            long wait = 0;
+            Item item;
+            while (list.size() < max && (item = items.poll()) != null) {
+                if (list.isEmpty()) {
+                    wait = System.nanoTime() - item.time;
+                }
+                list.add(item.sr);
+                size.decrementAndGet();
+            }
+            return wait;
+        }
+
+        public int clear() {
+            int n = 0;
+            while (items.poll() != null) {
+                n++;
+                size.decrementAndGet();
+            }
+            return n;
+        }
+
+        public boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        public int size() {
+            return size.get();
+        }
+    }
+
+    private static final class Item {
+
+        public final UISearchResult sr;
+        public final long time;
+
+        public Item(UISearchResult sr, long time) {
+            this.sr = sr;
+            this.time = time;
+        }
+    }
+}
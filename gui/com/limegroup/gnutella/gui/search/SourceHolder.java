@@ -1,5 +1,8 @@
 package com.limegroup.gnutella.gui.search;
 
+import java.util.Collections;
+import java.util.List;
+
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
 
 /**
@@ -13,12 +16,33 @@ public class SourceHolder implements Comparable<SourceHolder> {
     private final String sourceNameHTML;
     private final String sourceName;
     private final String sourceURL;
+    private final String sourcesToolTip;
     
     public SourceHolder(UISearchResult uiSearchResult) {
+        this(uiSearchResult, Collections.<UISearchResult> emptyList());
+    }
+
+    /**
+     * Source of a result also found by other search engines, the other
+     * sources are counted next to the link and listed in the tooltip.
+     */
+    public SourceHolder(UISearchResult uiSearchResult, List<UISearchResult> otherResults) {
         this.uiSearchResult = uiSearchResult;
         this.sourceName = uiSearchResult.getSource();
-        this.sourceNameHTML = "<html><div width=\"1000000px\"><nobr><a href=\"#\">" + sourceName + "</a></nobr></div></html>";
         this.sourceURL  = uiSearchResult.getSearchResult().getDetailsUrl();
+
+        if (otherResults.isEmpty()) {
+            this.sourceNameHTML = "<html><div width=\"1000000px\"><nobr><a href=\"#\">" + sourceName + "</a></nobr></div></html>";
+            this.sourcesToolTip = null;
+        } else {
+            this.sourceNameHTML = "<html><div width=\"1000000px\"><nobr><a href=\"#\">" + sourceName + "</a> +" + otherResults.size() + "</nobr></div></html>";
+
+            StringBuilder sb = new StringBuilder(sourceName);
+            for (UISearchResult sr : otherResults) {
+                sb.append(", ").append(sr.getSource());
+            }
+            this.sourcesToolTip = sb.toString();
+        }
     }
 
     @Override
@@ -37,6 +61,13 @@ public class SourceHolder implements Comparable<SourceHolder> {
     public String getSourceURL() {
         return sourceURL;
     }
+
+    /**
+     * All the sources of the result, null if there is only one.
+     */
+    public String getSourcesToolTip() {
+        return sourcesToolTip;
+    }
     
     public UISearchResult getUISearchResult() {
         return uiSearchResult;
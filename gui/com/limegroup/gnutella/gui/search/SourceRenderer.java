@@ -104,6 +104,7 @@ public class SourceRenderer extends DefaultTableCellRenderer implements TableCel
     private void updateLinkLabel(JTable table) {
         if (getSourceHolder() != null) {
             setText(getSourceHolder().getSourceNameHTML());
+            setToolTipText(getSourceHolder().getSourcesToolTip());
             syncFont(table, this);
         }
     }
@@ -16,9 +16,8 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import com.frostwire.gui.filters.TableLineFilter;
 import com.limegroup.gnutella.settings.SearchSettings;
@@ -80,18 +79,8 @@ public class TableRowFilteredModel extends ResultPanelModel {
      * Determines whether or not this line should be added.
      */
     public int add(SearchResultDataLine tl, int row) {
-        boolean isNotJunk = junkFilter.allow(tl);
-        boolean allow = allow(tl);
-
-        if (isNotJunk || !SearchSettings.hideJunk()) {
-            if (allow) {
-                return super.add(tl, row);
-            } else {
-                HIDDEN.add(tl);
-                _numResults += 1;
-            }
-        } else {
-            _numResults += 1;
+        if (accept(tl)) {
+            return super.add(tl, row);
         }
         return -1;
     }
@@ -131,6 +120,26 @@ public class TableRowFilteredModel extends ResultPanelModel {
         }
     }
 
+    /**
+     * Determines whether or not the line is shown. Lines not allowed by the
+     * filter are kept aside, hidden junk is only counted.
+     */
+    private boolean accept(SearchResultDataLine tl) {
+        boolean isNotJunk = junkFilter.allow(tl);
+
+        if (isNotJunk || !SearchSettings.hideJunk()) {
+            if (allow(tl)) {
+                return true;
+            } else {
+                HIDDEN.add(tl);
+            }
+        } else {
+            unregister(tl);
+        }
+        _numResults += 1;
+        return false;
+    }
+
     /**
      * Determines whether or not the specified line is allowed by the filter.
      */
@@ -139,53 +148,29 @@ public class TableRowFilteredModel extends ResultPanelModel {
     }
 
     /**
-     * Rebuilds the internal map to denote a new filter.
+     * Rebuilds the internal list to denote a new filter. The lines are
+     * filtered and sorted in bulk, then set at once.
      */
     private void rebuild() {
-        List<SearchResultDataLine> existing = new ArrayList<SearchResultDataLine>(_list);
-        List<SearchResultDataLine> hidden = new ArrayList<SearchResultDataLine>(HIDDEN);
-        simpleClear();
+        List<SearchResultDataLine> lines = new ArrayList<SearchResultDataLine>(getRowCount() + HIDDEN.size());
+        lines.addAll(_list);
+        lines.addAll(HIDDEN);
 
-        // For stuff in _list, we can just re-add the DataLines as-is.
-        if (isSorted()) {
-            for (int i = 0; i < existing.size(); i++) {
-                addSorted(existing.get(i));
-            }
-        } else {
-            for (int i = 0; i < existing.size(); i++) {
-                add(existing.get(i));
-            }
-        }
-
-        // Merge the hidden TableLines
-        Map<String, SearchResultDataLine> mergeMap = new HashMap<String, SearchResultDataLine>();
-        for (int i = 0; i < hidden.size(); i++) {
-            SearchResultDataLine tl = hidden.get(i);
-            //SearchResult sr = tl.getInitializeObject();
-            //String urn = sr.getHash();
+        _numResults = 0;
+        HIDDEN.clear();
 
-            if (isSorted()) {
-                addSorted(tl);
-            } else {
-                add(tl);
+        List<SearchResultDataLine> visible = new ArrayList<SearchResultDataLine>(lines.size());
+        for (SearchResultDataLine line : lines) {
+            if (accept(line)) {
+                visible.add(line);
             }
-
-            //            TableLine tableLine = mergeMap.get(urn);
-            //            if (tableLine == null) {
-            //                mergeMap.put(urn, tl); // re-use TableLines
-            //            } else {
-            //                tableLine.addNewResult(sr, METADATA);
-            //            }
         }
 
-        // And add them
         if (isSorted()) {
-            for (SearchResultDataLine line : mergeMap.values())
-                addSorted(line);
-        } else {
-            for (SearchResultDataLine line : mergeMap.values())
-                add(line);
+            Collections.sort(visible, this);
         }
+
+        setLines(visible);
     }
 
     public int getFilteredResults() {
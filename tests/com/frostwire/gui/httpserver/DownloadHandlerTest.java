@@ -0,0 +1,77 @@
+package com.frostwire.gui.httpserver;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of the Range and If-Range headers of DownloadHandler.
+ */
+public class DownloadHandlerTest extends TestCase {
+
+    public DownloadHandlerTest(String name) {
+        super(name);
+    }
+
+    public void testRanges() {
+        assertRange(0, 499, "bytes=0-499", 1000);
+        assertRange(500, 999, "bytes=500-999", 1000);
+        assertRange(500, 999, "bytes=500-", 1000);
+        assertRange(999, 999, "bytes=999-999", 1000);
+        assertRange(500, 999, "bytes= 500 - 2000 ", 1000); // end past the length
+    }
+
+    public void testSuffixRanges() {
+        assertRange(900, 999, "bytes=-100", 1000);
+        assertRange(0, 999, "bytes=-5000", 1000); // suffix past the start
+    }
+
+    public void testLargeFiles() {
+        long length = 6L * 1024 * 1024 * 1024;
+        assertRange(5L * 1024 * 1024 * 1024, length - 1, "bytes=5368709120-", length);
+        assertRange(length - 10, length - 1, "bytes=-10", length);
+    }
+
+    public void testNotSatisfiable() {
+        assertSame(DownloadHandler.RANGE_NOT_SATISFIABLE, DownloadHandler.parseRange("bytes=1000-", 1000));
+        assertSame(DownloadHandler.RANGE_NOT_SATISFIABLE, DownloadHandler.parseRange("bytes=2000-3000", 1000));
+        assertSame(DownloadHandler.RANGE_NOT_SATISFIABLE, DownloadHandler.parseRange("bytes=-0", 1000));
+        assertSame(DownloadHandler.RANGE_NOT_SATISFIABLE, DownloadHandler.parseRange("bytes=0-", 0));
+    }
+
+    public void testIgnored() {
+        String[] values = { "items=0-10", "bytes=", "bytes=-", "bytes=10", "bytes=0-10,20-30", "bytes=10-5", "bytes=a-b", "bytes=+5-10", "bytes=--5", "bytes=5--3", "bytes=99999999999999999999-" };
+        for (String value : values) {
+            assertNull(value, DownloadHandler.parseRange(value, 1000));
+        }
+    }
+
+    public void testIfRange() {
+        long lastModified = 1350000000000L;
+        String etag = "\"abc-123\"";
+
+        SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        assertTrue(DownloadHandler.isIfRangeSatisfied(null, etag, lastModified));
+        assertTrue(DownloadHandler.isIfRangeSatisfied(etag, etag, lastModified));
+        assertFalse(DownloadHandler.isIfRangeSatisfied("\"other\"", etag, lastModified));
+        assertFalse(DownloadHandler.isIfRangeSatisfied("W/\"abc-123\"", etag, lastModified));
+
+        // dates have a precision of seconds
+        assertTrue(DownloadHandler.isIfRangeSatisfied(df.format(new Date(lastModified + 500)), etag, lastModified));
+        assertFalse(DownloadHandler.isIfRangeSatisfied(df.format(new Date(lastModified - 1000)), etag, lastModified));
+        assertFalse(DownloadHandler.isIfRangeSatisfied("not a date", etag, lastModified));
+    }
+
+    private static void assertRange(long start, long end, String value, long length) {
+        long[] r = DownloadHandler.parseRange(value, length);
+        assertNotNull(value, r);
+        assertEquals(value, 2, r.length);
+        assertEquals(value, start, r[0]);
+        assertEquals(value, end, r[1]);
+    }
+}
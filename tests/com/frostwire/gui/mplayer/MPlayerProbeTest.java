@@ -0,0 +1,90 @@
+package com.frostwire.gui.mplayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of the output of a batch of MPlayerProbe, loadfile and
+ * get_property path per file.
+ */
+public class MPlayerProbeTest extends TestCase {
+
+    private static final List<String> PATHS = Arrays.asList("/music/a.mp3", "/music/b.mp3", "/music/c.mp3");
+
+    public MPlayerProbeTest(String name) {
+        super(name);
+    }
+
+    public void testBatch() {
+        List<String> lines = new ArrayList<String>();
+        lines.addAll(file("/music/a.mp3", "180", "Artist A"));
+        lines.addAll(file("/music/b.mp3", "200", "Artist B"));
+        lines.addAll(file("/music/c.mp3", "220", "Artist C"));
+
+        List<Map<String, String>> results = MPlayerProbe.parseBatch(PATHS, lines);
+
+        assertNotNull(results);
+        assertEquals(3, results.size());
+        assertEquals("180", results.get(0).get("ID_LENGTH"));
+        assertEquals("Artist A", results.get(0).get("Artist"));
+        assertEquals("200", results.get(1).get("ID_LENGTH"));
+        assertEquals("Artist B", results.get(1).get("Artist"));
+        assertEquals("220", results.get(2).get("ID_LENGTH"));
+        assertEquals("Artist C", results.get(2).get("Artist"));
+    }
+
+    public void testFailedFileInTheMiddle() {
+        List<String> lines = new ArrayList<String>();
+        lines.addAll(file("/music/a.mp3", "180", "Artist A"));
+        lines.add("Failed to recognize file format.");
+        lines.add("ANS_ERROR=PROPERTY_UNAVAILABLE");
+        lines.addAll(file("/music/c.mp3", "220", "Artist C"));
+
+        List<Map<String, String>> results = MPlayerProbe.parseBatch(PATHS, lines);
+
+        assertNotNull(results);
+        assertEquals(3, results.size());
+        assertEquals("180", results.get(0).get("ID_LENGTH"));
+        assertTrue(results.get(1).isEmpty());
+        assertEquals("220", results.get(2).get("ID_LENGTH"));
+        assertEquals("Artist C", results.get(2).get("Artist"));
+    }
+
+    public void testMissingAnswer() {
+        // the failed file gets no answer, the output is one answer short
+        List<String> lines = new ArrayList<String>();
+        lines.addAll(file("/music/a.mp3", "180", "Artist A"));
+        lines.add("Failed to recognize file format.");
+        lines.addAll(file("/music/c.mp3", "220", "Artist C"));
+
+        assertNull(MPlayerProbe.parseBatch(PATHS, lines));
+    }
+
+    public void testExtraAnswer() {
+        List<String> lines = new ArrayList<String>();
+        lines.addAll(file("/music/a.mp3", "180", "Artist A"));
+        lines.add("ANS_ERROR=PROPERTY_UNAVAILABLE");
+        lines.addAll(file("/music/b.mp3", "200", "Artist B"));
+        lines.addAll(file("/music/c.mp3", "220", "Artist C"));
+
+        assertNull(MPlayerProbe.parseBatch(PATHS, lines));
+    }
+
+    public void testAnswerOfAnotherFile() {
+        // same number of answers, but shifted by one file
+        List<String> lines = new ArrayList<String>();
+        lines.add("ANS_ERROR=PROPERTY_UNAVAILABLE");
+        lines.addAll(file("/music/a.mp3", "180", "Artist A"));
+        lines.addAll(file("/music/b.mp3", "200", "Artist B"));
+
+        assertNull(MPlayerProbe.parseBatch(PATHS, lines));
+    }
+
+    private static List<String> file(String path, String length, String artist) {
+        return Arrays.asList("Playing " + path + ".", "ID_AUDIO_ID=0", "ID_CLIP_INFO_NAME0=Artist", "ID_CLIP_INFO_VALUE0=" + artist, "ID_LENGTH=" + length, "ANS_path=" + path);
+    }
+}
@@ -0,0 +1,135 @@
+package com.frostwire.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the split and the stored state of HttpSegments.
+ */
+public class HttpSegmentsTest extends TestCase {
+
+    private File file;
+
+    public HttpSegmentsTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("segments", ".bin");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HttpSegments.delete(file);
+        file.delete();
+    }
+
+    public void testCreateCoversTheFile() {
+        long[] lengths = { 4, 1000, 1001, 1002, 1003, 5L * 1024 * 1024 * 1024 + 7 };
+
+        for (long length : lengths) {
+            for (int count = 1; count <= 4; count++) {
+                HttpSegments segments = HttpSegments.create(file, length, count);
+
+                assertEquals(length, segments.getLength());
+                assertEquals(count, segments.getCount());
+
+                // contiguous, no gaps or overlaps, up to the last byte
+                long next = 0;
+                for (int i = 0; i < count; i++) {
+                    assertEquals(next, segments.getPosition(i));
+                    assertTrue(segments.getEnd(i) >= segments.getPosition(i));
+                    assertFalse(segments.isComplete(i));
+                    next = segments.getEnd(i) + 1;
+                }
+                assertEquals(length, next);
+                assertEquals(0, segments.getDownloaded());
+            }
+        }
+    }
+
+    public void testPositions() {
+        HttpSegments segments = HttpSegments.create(file, 1000, 4);
+
+        segments.setPosition(0, 100);
+        segments.setPosition(1, segments.getEnd(1) + 1);
+
+        assertFalse(segments.isComplete(0));
+        assertTrue(segments.isComplete(1));
+        assertEquals(100 + 250, segments.getDownloaded());
+    }
+
+    public void testStoreAndLoad() throws IOException {
+        long length = 3L * 1024 * 1024 * 1024; // over 2 GB
+        HttpSegments segments = HttpSegments.create(file, length, 3);
+        segments.setPosition(0, 12345);
+        segments.setPosition(2, segments.getEnd(2) + 1);
+        segments.store();
+
+        HttpSegments loaded = HttpSegments.load(file);
+        assertNotNull(loaded);
+        assertEquals(length, loaded.getLength());
+        assertEquals(3, loaded.getCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(segments.getPosition(i), loaded.getPosition(i));
+            assertEquals(segments.getEnd(i), loaded.getEnd(i));
+            assertEquals(segments.isComplete(i), loaded.isComplete(i));
+        }
+        assertEquals(segments.getDownloaded(), HttpSegments.getDownloaded(file));
+
+        // stored again over the previous state
+        loaded.setPosition(1, loaded.getPosition(1) + 10);
+        loaded.store();
+        assertEquals(segments.getDownloaded() + 10, HttpSegments.getDownloaded(file));
+
+        loaded.delete();
+        assertNull(HttpSegments.load(file));
+        assertEquals(-1, HttpSegments.getDownloaded(file));
+    }
+
+    public void testLoadInvalid() throws IOException {
+        assertNull(HttpSegments.load(file));
+
+        File stateFile = new File(file.getPath() + ".segments");
+
+        // not a state file
+        writeState(stateFile, 0x12345678, 1000, 1, false);
+        assertNull(HttpSegments.load(file));
+
+        // truncated
+        writeState(stateFile, 0x46575347, 1000, 2, true);
+        assertNull(HttpSegments.load(file));
+
+        // damaged count
+        writeState(stateFile, 0x46575347, 1000, -1, false);
+        assertNull(HttpSegments.load(file));
+        writeState(stateFile, 0x46575347, 1000, Integer.MAX_VALUE, false);
+        assertNull(HttpSegments.load(file));
+
+        // position out of its segment
+        HttpSegments segments = HttpSegments.create(file, 1000, 2);
+        segments.setPosition(0, 900);
+        segments.store();
+        assertNull(HttpSegments.load(file));
+    }
+
+    private static void writeState(File stateFile, int magic, long length, int count, boolean truncated) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(stateFile));
+        try {
+            out.writeInt(magic);
+            out.writeLong(length);
+            out.writeInt(count);
+            if (truncated) {
+                out.writeLong(0);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
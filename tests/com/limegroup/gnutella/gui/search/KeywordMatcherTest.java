@@ -0,0 +1,116 @@
+package com.limegroup.gnutella.gui.search;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests KeywordMatcher gives the same results as the regular expressions
+ * it replaced, kept here as the reference.
+ */
+public class KeywordMatcherTest extends TestCase {
+
+    private static final String[] SAMPLES = { "", " ", "Ubuntu 12.04 Desktop i386.iso", "www.example.com - Artist_Name - Song (Live) [2012].mp3", "<b>Bold</b> &amp; <i>italic</i>", "Beyoncé - Déjà Vu", "ÀÁ Ðrama ¡Olé!", "The.Movie.2012.DVDRip.XviD-GRP.torrent", "a\tb\nc\rd\u000be\ff", "  trailing  spaces  ", "<unclosed tag", "&no entity end", "<a\nb> line break in tag", "&a<b;c>", "İstanbul ΣΟΦΟΣ", "\u0001 control \u0001", "½ ﬁ ² ㎏", "wwww.site.net/path?q=1", "a.torrent.com.net.www." };
+
+    private static final String ALPHABET = "abcXYZ09 \t\n\r\u000b\f\u0001.-_()[]<>&;/\\%@^'=!,|#~{}*éÉüÑÀÁÐ¡İΣ½ﬁ  wtorrentcomne";
+
+    public KeywordMatcherTest(String name) {
+        super(name);
+    }
+
+    public void testSanitizeSamples() {
+        for (String s : SAMPLES) {
+            assertEquals(s, oldSanitize(s), KeywordMatcher.sanitize(s));
+        }
+    }
+
+    public void testNormalizeSamples() {
+        for (String s : SAMPLES) {
+            String sanitized = oldSanitize(s);
+            assertEquals(s, oldNormalize(sanitized), KeywordMatcher.normalize(sanitized));
+        }
+    }
+
+    public void testRandomAgainstRegex() {
+        Random random = new Random(4321);
+
+        for (int i = 0; i < 20000; i++) {
+            String s = randomString(random, random.nextInt(40));
+
+            String sanitized = oldSanitize(s);
+            assertEquals(s, sanitized, KeywordMatcher.sanitize(s));
+            assertEquals(s, oldNormalize(sanitized), KeywordMatcher.normalize(sanitized));
+        }
+    }
+
+    public void testMatchesAgainstRegex() {
+        Random random = new Random(8765);
+
+        for (int i = 0; i < 5000; i++) {
+            String query = randomString(random, 1 + random.nextInt(6));
+            String name = randomString(random, random.nextInt(60));
+
+            KeywordMatcher matcher = KeywordMatcher.compile(query);
+            assertEquals(query + " / " + name, oldMatches(query, name), matcher.matches(name));
+        }
+    }
+
+    public void testMatches() {
+        KeywordMatcher matcher = KeywordMatcher.compile("Déjà vu");
+        assertFalse(matcher.isEmpty());
+        assertTrue(matcher.matches("Beyonce - Deja_Vu.mp3"));
+        assertTrue(matcher.matches("<b>VU</b> de DÉJà"));
+        assertFalse(matcher.matches("Deja"));
+
+        assertTrue(KeywordMatcher.compile(" .torrent ").isEmpty());
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    // the old regular expressions path
+
+    private static boolean oldMatches(String query, String name) {
+        Set<String> tokens = new HashSet<String>();
+        for (String token : oldSanitize(query).toLowerCase(Locale.US).split(" ")) {
+            tokens.add(oldNormalize(token));
+        }
+
+        String str = oldNormalize(oldSanitize(name));
+
+        // an empty query did not filter
+        if (tokens.equals(new HashSet<String>(Arrays.asList("")))) {
+            return true;
+        }
+        for (String token : tokens) {
+            if (!str.contains(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String oldSanitize(String str) {
+        str = str.replaceAll("\\<.*?>", "");
+        str = str.replaceAll("\\&.*?\\;", "");
+        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
+        str = str.replaceAll("\\s+", " ");
+        return str.trim();
+    }
+
+    private static String oldNormalize(String token) {
+        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
+        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+        return norm.toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,153 @@
+package org.gudy.azureus2.core3.torrent.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the pieces hashed in parallel by TOTorrentFileHasher are the
+ * hashes of a plain sequential read, in the same order.
+ */
+public class TOTorrentFileHasherTest extends TestCase {
+
+    private static final int PIECE_LENGTH = 16 * 1024;
+
+    private List<File> files;
+
+    public TOTorrentFileHasherTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new ArrayList<File>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    public void testShortLastPiece() throws Exception {
+        assertPieces(createFile(PIECE_LENGTH * 50 + 123));
+    }
+
+    public void testExactPieces() throws Exception {
+        assertPieces(createFile(PIECE_LENGTH * 20));
+    }
+
+    public void testSmallerThanOnePiece() throws Exception {
+        assertPieces(createFile(100));
+    }
+
+    public void testPiecesAcrossFiles() throws Exception {
+        // pieces continue from one file to the next
+        assertPieces(createFile(PIECE_LENGTH * 3 + 7), createFile(PIECE_LENGTH / 2), createFile(1), createFile(PIECE_LENGTH * 40 + 999));
+    }
+
+    public void testPieceHashedListener() throws Exception {
+        File file = createFile(PIECE_LENGTH * 30 + 1);
+
+        final int[] calls = new int[1];
+        final int[] last = new int[1];
+
+        TOTorrentFileHasher hasher = new TOTorrentFileHasher(false, false, PIECE_LENGTH, new TOTorrentFileHasherListener() {
+            public void pieceHashed(int piece_number) {
+                calls[0]++;
+                last[0] = Math.max(last[0], piece_number);
+            }
+        });
+
+        hasher.add(file);
+        byte[][] pieces = hasher.getPieces();
+
+        assertEquals(31, pieces.length);
+        assertEquals(31, calls[0]);
+        assertEquals(31, last[0]);
+    }
+
+    private void assertPieces(File... files) throws Exception {
+        TOTorrentFileHasher hasher = new TOTorrentFileHasher(false, false, PIECE_LENGTH, null);
+
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        long total = 0;
+
+        for (File f : files) {
+            assertEquals(f.length(), hasher.add(f));
+            all.write(read(f));
+            total += f.length();
+        }
+
+        byte[][] pieces = hasher.getPieces();
+        byte[][] expected = sequentialPieces(all.toByteArray());
+
+        assertEquals((total + PIECE_LENGTH - 1) / PIECE_LENGTH, pieces.length);
+        assertEquals(expected.length, pieces.length);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue("piece " + i, Arrays.equals(expected[i], pieces[i]));
+        }
+    }
+
+    private static byte[][] sequentialPieces(byte[] data) throws Exception {
+        int n = (data.length + PIECE_LENGTH - 1) / PIECE_LENGTH;
+        byte[][] pieces = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            int offset = i * PIECE_LENGTH;
+            pieces[i] = sha1(data, offset, Math.min(PIECE_LENGTH, data.length - offset));
+        }
+        return pieces;
+    }
+
+    private static byte[] sha1(byte[] data, int offset, int length) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        md.update(data, offset, length);
+        return md.digest();
+    }
+
+    private File createFile(int length) throws IOException {
+        File file = File.createTempFile("hasher", ".bin");
+        files.add(file);
+
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int pos = 0;
+            while (pos < data.length) {
+                int n = in.read(data, pos, data.length - pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}